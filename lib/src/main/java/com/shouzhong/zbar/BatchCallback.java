@@ -0,0 +1,16 @@
+package com.shouzhong.zbar;
+
+public interface BatchCallback {
+
+    /**
+     * 一张图片识别完成，运行于识别线程（BatchDecoder-N），按完成的顺序回调，可能并发
+     */
+    void result(BatchResult result);
+
+    /**
+     * 整个批次完成（或被取消），运行于本批次的取图线程（BatchDecoder-feeder），
+     * 在本批次所有的result回调都返回之后才会回调
+     */
+    void complete();
+
+}
@@ -0,0 +1,174 @@
+package com.shouzhong.zbar;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量识别图片
+ * <p>
+ * 图片在固定数量的线程中识别，每张图片识别完成后立即回调；
+ * 同一批次中正在加载和识别的图片数不超过线程数，图片来源会按需从迭代器中取出，
+ * 因此内存占用只与线程数有关，与批次的大小无关<br/>
+ * 每个批次可通过decode返回的BatchTask单独取消
+ */
+public class BatchDecoder {
+
+    private final Collection<BarcodeFormat> formats;
+    private final int parallelism;
+    private final ExecutorService executor;
+    private final Set<BatchTask> runningTasks = Collections.newSetFromMap(new ConcurrentHashMap<BatchTask, Boolean>());
+    private volatile boolean isShutdown;
+
+    /**
+     * 支持所有码格式，线程数为CPU核数
+     */
+    public BatchDecoder() {
+        this(BarcodeFormat.ALL_FORMATS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param formats 支持的码格式
+     * @param parallelism 线程数，小于1时按1处理
+     */
+    public BatchDecoder(Collection<BarcodeFormat> formats, int parallelism) {
+        this.formats = formats;
+        this.parallelism = Math.max(1, parallelism);
+        final AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(this.parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            r.run();
+                        } finally {
+                            DecoderEngine.releaseCurrentThread();//线程退出时释放识别引擎
+                        }
+                    }
+                }, "BatchDecoder-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public BatchTask decode(Iterable<ImageSource> sources, BatchCallback callback) {
+        return decode(sources.iterator(), callback);
+    }
+
+    /**
+     * 开始识别一批图片，立即返回
+     *
+     * @param sources 图片来源，在单独的线程中按需取出
+     * @param callback 每张图片识别完成后回调，全部完成后回调complete
+     * @return 本批次，可用于单独取消
+     */
+    public BatchTask decode(final Iterator<ImageSource> sources, final BatchCallback callback) {
+        final BatchTask task = new BatchTask();
+        if (isShutdown) task.cancel();
+        runningTasks.add(task);
+        Thread feeder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                feed(task, sources, callback);
+            }
+        }, "BatchDecoder-feeder");
+        feeder.setDaemon(true);
+        feeder.start();
+        return task;
+    }
+
+    /**
+     * 取消当前所有批次中还未开始的图片，正在识别的图片会继续完成；之后开始的批次不受影响<br/>
+     * 只取消某个批次请使用BatchTask.cancel
+     */
+    public void cancel() {
+        for (BatchTask task : runningTasks) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * 关闭线程池，之后不能再使用
+     */
+    public void shutdown() {
+        isShutdown = true;
+        cancel();
+        executor.shutdown();
+    }
+
+    private void feed(BatchTask task, Iterator<ImageSource> sources, final BatchCallback callback) {
+        final Semaphore permits = new Semaphore(parallelism);//背压：同一批次最多parallelism张图片在处理中
+        int index = 0;
+        boolean interrupted = false;
+        try {
+            while (!task.isCancelled() && sources.hasNext()) {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+                final ImageSource source;
+                try {
+                    source = sources.next();
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+                final int i = index++;
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                callback.result(decodeOne(i, source));
+                            } catch (RuntimeException e) {
+                                e.printStackTrace();
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {//线程池已关闭
+                    permits.release();
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {//迭代器出错
+            e.printStackTrace();
+        } finally {
+            //等待本批次已提交的图片全部完成，保证complete在所有result之后
+            permits.acquireUninterruptibly(parallelism);
+            runningTasks.remove(task);
+            try {
+                callback.complete();
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private BatchResult decodeOne(int index, ImageSource source) {
+        try {
+            String text = source.decode(DecoderEngine.get(formats, 3));
+            return new BatchResult(index, source, text == null ? BatchResult.STATUS_NOT_FOUND : BatchResult.STATUS_OK, text);
+        } catch (IOException e) {
+            return new BatchResult(index, source, BatchResult.STATUS_LOAD_FAILED, null);
+        } catch (OutOfMemoryError e) {
+            return new BatchResult(index, source, BatchResult.STATUS_OUT_OF_MEMORY, null);
+        } catch (RuntimeException e) {
+            return new BatchResult(index, source, BatchResult.STATUS_ERROR, null);
+        }
+    }
+}
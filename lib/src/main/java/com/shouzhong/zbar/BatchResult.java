@@ -0,0 +1,50 @@
+package com.shouzhong.zbar;
+
+/**
+ * 批量识别中单张图片的结果
+ */
+public final class BatchResult {
+
+    public static final int STATUS_OK = 0;//识别成功
+    public static final int STATUS_NOT_FOUND = 1;//图片中没有识别到条码
+    public static final int STATUS_LOAD_FAILED = 2;//图片加载失败
+    public static final int STATUS_OUT_OF_MEMORY = 3;//内存不足
+    public static final int STATUS_ERROR = 4;//其他错误
+
+    private final int index;
+    private final ImageSource source;
+    private final int status;
+    private final String text;
+
+    BatchResult(int index, ImageSource source, int status, String text) {
+        this.index = index;
+        this.source = source;
+        this.status = status;
+        this.text = text;
+    }
+
+    /**
+     * 图片在批次中的序号，从0开始
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public ImageSource getSource() {
+        return source;
+    }
+
+    /**
+     * 状态码，见STATUS_*
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * 条码内容，识别失败时为null
+     */
+    public String getText() {
+        return text;
+    }
+}
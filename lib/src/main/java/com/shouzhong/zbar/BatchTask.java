@@ -0,0 +1,23 @@
+package com.shouzhong.zbar;
+
+/**
+ * 一个识别批次，由BatchDecoder.decode返回，用于单独取消这个批次
+ */
+public final class BatchTask {
+
+    private volatile boolean cancelled;
+
+    BatchTask() {
+    }
+
+    /**
+     * 取消本批次中还未开始的图片，正在识别的图片会继续完成，之后回调complete
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -22,6 +22,8 @@ class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
     private Camera.PreviewCallback previewCallback;//当相机被释放时会被置为null
     private FocusAreaSetter focusAreaSetter;
     private SensorController sensorController;
+    private SensorController.MotionListener motionListener;
+    private PreviewBufferPool previewBufferPool;//为null时使用一次性的预览回调
 
     private boolean previewing = true;//是否正在预览
     private boolean surfaceCreated = false;//surface是否已创建
@@ -92,26 +94,30 @@ class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
             try {
                 previewing = true;
                 //设置相机参数
-                Camera.Parameters parameters = cameraWrapper.camera.getParameters();
-                parameters.setPreviewSize(mPreviewWidth, mPreviewHeight);
-                parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
-                cameraWrapper.camera.setParameters(parameters);
+                synchronized (cameraWrapper) {
+                    Camera.Parameters parameters = cameraWrapper.getParameters();
+                    parameters.setPreviewSize(mPreviewWidth, mPreviewHeight);
+                    parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+                    cameraWrapper.setParameters(parameters);
+                }
                 cameraWrapper.camera.setPreviewDisplay(getHolder());//设置在当前surfaceView中进行相机预览
                 cameraWrapper.camera.setDisplayOrientation(getDisplayOrientation());//设置相机预览图像的旋转角度
-                cameraWrapper.camera.setOneShotPreviewCallback(previewCallback);//设置一次性的预览回调
+                if (previewBufferPool != null) {
+                    previewBufferPool.attach(cameraWrapper.camera);//预先放入缓冲区
+                    cameraWrapper.camera.setPreviewCallbackWithBuffer(previewCallback);//设置带缓冲区的预览回调
+                } else {
+                    cameraWrapper.camera.setOneShotPreviewCallback(previewCallback);//设置一次性的预览回调
+                }
                 cameraWrapper.camera.startPreview();//开始预览
                 if (!previewing || !surfaceCreated || sensorController != null) return;
                 focusAreaSetter.setAutoFocusArea();
                 sensorController = new SensorController(getContext());
                 sensorController.setDelay(1000);
+                sensorController.setMotionListener(motionListener);
                 sensorController.setCallback(new SensorController.Callback() {
                     @Override
                     public void onChanged() {
-                        cameraWrapper.camera.autoFocus(new Camera.AutoFocusCallback() {
-                            @Override
-                            public void onAutoFocus(boolean success, Camera camera) {
-                            }
-                        });
+                        autoFocus();
                     }
                 });
                 sensorController.onStart();
@@ -134,6 +140,7 @@ class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
                 }
                 cameraWrapper.camera.cancelAutoFocus();
                 cameraWrapper.camera.setOneShotPreviewCallback(null);
+                cameraWrapper.camera.setPreviewCallbackWithBuffer(null);
                 cameraWrapper.camera.stopPreview();
             } catch (Exception e) {
                 e.printStackTrace();
@@ -143,6 +150,36 @@ class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
         }
     }
 
+    /**
+     * 对焦一次，需在主线程调用
+     */
+    void autoFocus() {
+        if (cameraWrapper == null || !previewing) return;
+        try {
+            cameraWrapper.camera.autoFocus(new Camera.AutoFocusCallback() {
+                @Override
+                public void onAutoFocus(boolean success, Camera camera) {
+                }
+            });
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 设置加速度的监听，与自动对焦共用同一个传感器，需在surface创建之前调用
+     */
+    void setMotionListener(SensorController.MotionListener motionListener) {
+        this.motionListener = motionListener;
+    }
+
+    /**
+     * 设置预览帧缓冲池，需在surface创建之前调用
+     */
+    void setPreviewBufferPool(PreviewBufferPool previewBufferPool) {
+        this.previewBufferPool = previewBufferPool;
+    }
+
     /**
      * 要使相机图像的方向与手机中窗口的方向一致，相机图像需要顺时针旋转的角度
      * <p>
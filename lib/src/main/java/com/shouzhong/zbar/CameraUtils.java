@@ -1,9 +1,6 @@
 package com.shouzhong.zbar;
 
 import android.hardware.Camera;
-import android.text.TextUtils;
-
-import java.util.List;
 
 class CameraUtils {
 
@@ -37,20 +34,4 @@ class CameraUtils {
             return null;
         }
     }
-
-    /**
-     * 是否支持闪光灯
-     *
-     * @param camera
-     * @return
-     */
-    static boolean isFlashSupported(Camera camera) {
-        if (camera == null) return false;
-        Camera.Parameters parameters = camera.getParameters();
-        if (parameters.getFlashMode() == null) return false;
-        List<String> list = parameters.getSupportedFlashModes();
-        if (list == null || list.size() == 0) return false;
-        if (list.size() == 1 && TextUtils.equals(list.get(0), Camera.Parameters.FLASH_MODE_OFF)) return false;
-        return true;
-    }
-}
\ No newline at end of file
+}
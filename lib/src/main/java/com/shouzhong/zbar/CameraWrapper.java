@@ -1,21 +1,141 @@
 package com.shouzhong.zbar;
 
 import android.hardware.Camera;
+import android.text.TextUtils;
 
+import java.util.List;
+
+/**
+ * 相机及其参数缓存
+ * <p>
+ * Camera.getParameters每次都要跨进程获取并解析一长串参数，这里在打开相机时获取一次，
+ * 之后只在通过setParameters修改参数时更新
+ */
 class CameraWrapper {
     public final Camera camera;
     public final int cameraId;
 
+    private Camera.Parameters parameters;
+    private volatile int previewWidth;
+    private volatile int previewHeight;
+    private volatile boolean flashSupported;
+    private String flashMode;
+    private volatile int maxNumFocusAreas;
+    private volatile List<int[]> supportedPreviewFpsRanges;
+    private final int[] previewFpsRange = new int[2];
+
     private CameraWrapper(Camera camera, int cameraId) {
         this.camera = camera;
         this.cameraId = cameraId;
+        reloadParameters();
     }
 
     public static CameraWrapper getWrapper(Camera camera, int cameraId) {
         if (camera == null) {
             return null;
         } else {
-            return new CameraWrapper(camera, cameraId);
+            try {
+                return new CameraWrapper(camera, cameraId);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                camera.release();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 获取缓存的相机参数，修改后需调用setParameters才会生效
+     */
+    synchronized Camera.Parameters getParameters() {
+        return parameters;
+    }
+
+    /**
+     * 设置相机参数并更新缓存，设置失败时重新从相机获取
+     */
+    synchronized void setParameters(Camera.Parameters parameters) {
+        try {
+            camera.setParameters(parameters);
+            updateCache(parameters);
+        } catch (RuntimeException e) {
+            reloadParameters();
+            throw e;
+        }
+    }
+
+    /**
+     * 设置闪光灯模式，与当前模式相同时不做任何操作
+     */
+    synchronized void setFlashMode(String mode) {
+        if (!flashSupported || mode == null || mode.equals(flashMode)) return;
+        parameters.setFlashMode(mode);
+        setParameters(parameters);
+    }
+
+    int getPreviewWidth() {
+        return previewWidth;
+    }
+
+    int getPreviewHeight() {
+        return previewHeight;
+    }
+
+    boolean isFlashSupported() {
+        return flashSupported;
+    }
+
+    synchronized String getFlashMode() {
+        return flashMode;
+    }
+
+    int getMaxNumFocusAreas() {
+        return maxNumFocusAreas;
+    }
+
+    /**
+     * 支持的预览帧率范围（帧率×1000）
+     */
+    List<int[]> getSupportedPreviewFpsRanges() {
+        return supportedPreviewFpsRanges;
+    }
+
+    /**
+     * 设置预览帧率范围（帧率×1000），与当前范围相同时不做任何操作
+     */
+    synchronized void setPreviewFpsRange(int min, int max) {
+        if (previewFpsRange[0] == min && previewFpsRange[1] == max) return;
+        parameters.setPreviewFpsRange(min, max);
+        setParameters(parameters);
+    }
+
+    private synchronized void reloadParameters() {
+        parameters = camera.getParameters();
+        flashSupported = isFlashSupported(parameters);
+        maxNumFocusAreas = parameters.getMaxNumFocusAreas();
+        supportedPreviewFpsRanges = parameters.getSupportedPreviewFpsRange();
+        updateCache(parameters);
+    }
+
+    /**
+     * 是否支持闪光灯，只在重新获取参数时解析一次
+     */
+    private static boolean isFlashSupported(Camera.Parameters parameters) {
+        if (parameters == null || parameters.getFlashMode() == null) return false;
+        List<String> list = parameters.getSupportedFlashModes();
+        if (list == null || list.size() == 0) return false;
+        if (list.size() == 1 && TextUtils.equals(list.get(0), Camera.Parameters.FLASH_MODE_OFF)) return false;
+        return true;
+    }
+
+    private void updateCache(Camera.Parameters parameters) {
+        this.parameters = parameters;
+        Camera.Size size = parameters.getPreviewSize();
+        if (size != null) {
+            previewWidth = size.width;
+            previewHeight = size.height;
         }
+        flashMode = parameters.getFlashMode();
+        parameters.getPreviewFpsRange(previewFpsRange);
     }
-}
\ No newline at end of file
+}
@@ -1,15 +1,13 @@
 package com.shouzhong.zbar;
 
+import android.content.Context;
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.text.TextUtils;
 
-import net.sourceforge.zbar.Config;
-import net.sourceforge.zbar.Image;
-import net.sourceforge.zbar.ImageScanner;
-import net.sourceforge.zbar.Symbol;
-import net.sourceforge.zbar.SymbolSet;
-
-import java.nio.charset.StandardCharsets;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Created by Administrator on 2018/07/31.
@@ -27,33 +25,106 @@ public class DecodeUtils {
      */
     public static String decode(Bitmap bmp) throws Exception {
         if (bmp == null) throw new Exception("图片不存在");
-        byte[] data = getYUV420sp(bmp.getWidth(), bmp.getHeight(), bmp);
-        ImageScanner imageScanner = new ImageScanner();
-        imageScanner.setConfig(0, Config.X_DENSITY, 3);
-        imageScanner.setConfig(0, Config.Y_DENSITY, 3);
-        imageScanner.setConfig(Symbol.NONE, Config.ENABLE, 0);
-        for (BarcodeFormat format : BarcodeFormat.ALL_FORMATS) {//设置支持的码格式
-            imageScanner.setConfig(format.getId(), Config.ENABLE, 1);
+        //复用当前线程的识别引擎
+        String result = DecoderEngine.get().decode(bmp);
+        bmp.recycle();
+        if (TextUtils.isEmpty(result)) throw new Exception("识别失败");
+        return result;
+    }
+
+    /**
+     * 识别图片文件，建议在子线程运行<br/>
+     * 不会加载完整的图片，先识别缩略图，失败后逐步放大，大图会分块识别
+     *
+     * @param file
+     * @return
+     */
+    public static String decode(File file) throws Exception {
+        if (file == null || !file.exists()) throw new Exception("图片不存在");
+        return decode(SampledDecoder.fromPath(file.getAbsolutePath()));
+    }
+
+    /**
+     * 识别图片文件，建议在子线程运行，同decode(File)
+     *
+     * @param context
+     * @param uri
+     * @return
+     */
+    public static String decode(Context context, Uri uri) throws Exception {
+        if (uri == null) throw new Exception("图片不存在");
+        return decode(SampledDecoder.fromUri(context.getContentResolver(), uri));
+    }
+
+    /**
+     * 识别图片流，建议在子线程运行，同decode(File)<br/>
+     * 流会被读完，但不会被关闭
+     *
+     * @param is
+     * @return
+     */
+    public static String decode(InputStream is) throws Exception {
+        if (is == null) throw new Exception("图片不存在");
+        return decode(SampledDecoder.fromStream(is));
+    }
+
+    /**
+     * 识别编码后的图片数据（如jpg文件的内容），建议在子线程运行，同decode(File)
+     *
+     * @param data
+     * @return
+     */
+    public static String decode(byte[] data) throws Exception {
+        if (data == null || data.length == 0) throw new Exception("图片不存在");
+        return decode(SampledDecoder.fromBytes(data));
+    }
+
+    private static String decode(SampledDecoder.Source source) throws Exception {
+        String result;
+        try {
+            result = SampledDecoder.decode(source, DecoderEngine.get());
+        } catch (IOException e) {
+            throw new Exception("图片无法解析", e);
         }
-        Image barcode = new Image(bmp.getWidth(), bmp.getHeight(), "Y800");
-        barcode.setData(data);
-        //使用zbar库识别扫码区域
-        int result = imageScanner.scanImage(barcode);
-        if (result == 0) throw new Exception("识别失败");
-        SymbolSet syms = imageScanner.getResults();
-        for (Symbol sym : syms) {
-            String symData;
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
-                symData = new String(sym.getDataBytes(), StandardCharsets.UTF_8);
-            } else {
-                symData = sym.getData();
-            }
-            if (!TextUtils.isEmpty(symData)) {
-                //识别成功一个就结束
-                return symData;
+        if (TextUtils.isEmpty(result)) throw new Exception("识别失败");
+        return result;
+    }
+
+    /**
+     * 灰度图（Y800），只计算亮度，不计算色度<br/>
+     * 按行分块读取像素，不会一次性分配整张图片的ARGB数组；大图片会根据像素数和CPU核数分给多个线程转换
+     *
+     * @param bmp
+     * @param out 可复用的数组，为null或长度不足时重新分配
+     * @return 亮度数据，长度为宽*高
+     */
+    public static byte[] getLuma(Bitmap bmp, byte[] out) {
+        int width = bmp.getWidth();
+        int height = bmp.getHeight();
+        if (out == null || out.length < width * height) out = new byte[width * height];
+        LumaConverter.convert(bmp, out);
+        return out;
+    }
+
+    /**
+     * 把[top, bottom)行的像素转换成亮度，写入out中对应的位置
+     *
+     * @param argb 临时数组，长度需为宽的整数倍
+     */
+    static void convertLuma(Bitmap bmp, int top, int bottom, int[] argb, byte[] out) {
+        int width = bmp.getWidth();
+        int rows = argb.length / width;
+        for (int y = top; y < bottom; y += rows) {
+            int h = Math.min(rows, bottom - y);
+            bmp.getPixels(argb, 0, width, 0, y, width, h);
+            int yIndex = y * width;
+            int n = width * h;
+            for (int i = 0; i < n; i++) {
+                int c = argb[i];
+                // 与getYUV420sp相同的定点数公式，结果在[16, 235]之间，无需截断
+                out[yIndex++] = (byte) (((66 * ((c >> 16) & 0xff) + 129 * ((c >> 8) & 0xff) + 25 * (c & 0xff) + 128) >> 8) + 16);
             }
         }
-        throw new Exception("识别失败");
     }
 
     /**
@@ -0,0 +1,184 @@
+package com.shouzhong.zbar;
+
+import android.graphics.Bitmap;
+import android.text.TextUtils;
+
+import net.sourceforge.zbar.Config;
+import net.sourceforge.zbar.Image;
+import net.sourceforge.zbar.ImageScanner;
+import net.sourceforge.zbar.Symbol;
+import net.sourceforge.zbar.SymbolSet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * 图片识别引擎
+ * <p>
+ * 每个线程按（码格式，扫描线间隔）缓存一个已配置好的ImageScanner，连同zbar图像和灰度数组一起复用，
+ * 批量识别图片时不用每次重新创建和配置；灰度数组只会变大，不会每次重新分配<br/>
+ * 引擎只能在获取它的线程中使用
+ */
+public final class DecoderEngine {
+
+    private static final ThreadLocal<HashMap<String, DecoderEngine>> ENGINES = new ThreadLocal<HashMap<String, DecoderEngine>>() {
+        @Override
+        protected HashMap<String, DecoderEngine> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private final Thread owner;
+    private ImageScanner scanner;
+    private Image image;
+    private byte[] luma = new byte[0];
+    private final byte[] emptyData = new byte[1];
+
+    private DecoderEngine(Collection<BarcodeFormat> formats, int density) {
+        owner = Thread.currentThread();
+        scanner = new ImageScanner();
+        scanner.setConfig(0, Config.X_DENSITY, density);
+        scanner.setConfig(0, Config.Y_DENSITY, density);
+        scanner.setConfig(Symbol.NONE, Config.ENABLE, 0);
+        for (BarcodeFormat format : formats) {//设置支持的码格式
+            scanner.setConfig(format.getId(), Config.ENABLE, 1);
+        }
+        image = new Image(1, 1, "Y800");
+    }
+
+    /**
+     * 获取当前线程中支持所有码格式、扫描线间隔为3的引擎
+     */
+    public static DecoderEngine get() {
+        return get(BarcodeFormat.ALL_FORMATS, 3);
+    }
+
+    /**
+     * 获取当前线程中对应配置的引擎，没有则创建
+     *
+     * @param formats 支持的码格式
+     * @param density 扫描线间隔，需大于0
+     */
+    public static DecoderEngine get(Collection<BarcodeFormat> formats, int density) {
+        if (formats == null || formats.isEmpty()) formats = BarcodeFormat.ALL_FORMATS;
+        if (density <= 0) throw new IllegalArgumentException("扫描线间隔需大于0");
+        String key = getKey(formats, density);
+        HashMap<String, DecoderEngine> engines = ENGINES.get();
+        DecoderEngine engine = engines.get(key);
+        if (engine == null) {
+            engine = new DecoderEngine(formats, density);
+            engines.put(key, engine);
+        }
+        return engine;
+    }
+
+    /**
+     * 释放当前线程中的所有引擎，线程不再识别图片时调用
+     */
+    public static void releaseCurrentThread() {
+        HashMap<String, DecoderEngine> engines = ENGINES.get();
+        Iterator<DecoderEngine> it = engines.values().iterator();
+        while (it.hasNext()) {
+            it.next().destroy();
+            it.remove();
+        }
+        ENGINES.remove();
+    }
+
+    /**
+     * 识别图片，不会回收bmp
+     *
+     * @return 识别出的第一个条码的内容，识别失败返回null
+     */
+    public String decode(Bitmap bmp) {
+        checkThread();
+        int width = bmp.getWidth();
+        int height = bmp.getHeight();
+        luma = obtainBuffer(width * height);
+        LumaConverter.convert(bmp, luma);
+        return decode(luma, width, height);
+    }
+
+    /**
+     * 识别灰度图（Y800）
+     *
+     * @param data 亮度数据，长度需不小于宽*高
+     * @return 识别出的第一个条码的内容，识别失败返回null
+     */
+    public String decode(byte[] data, int width, int height) {
+        checkThread();
+        SymbolSet syms = scan(data, width, height, 0, 0, width, height);
+        if (syms == null) return null;
+        for (Symbol sym : syms) {
+            String symData = getSymbolData(sym);
+            if (!TextUtils.isEmpty(symData)) {
+                //识别成功一个就结束
+                return symData;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取长度不小于size的灰度数组，只会变大，在当前线程中复用
+     */
+    byte[] obtainBuffer(int size) {
+        if (luma.length < size) luma = new byte[size];
+        return luma;
+    }
+
+    /**
+     * 识别灰度图中的指定区域
+     *
+     * @return 识别结果，识别失败返回null
+     */
+    SymbolSet scan(byte[] data, int width, int height, int left, int top, int cropWidth, int cropHeight) {
+        image.setSize(width, height);
+        image.setCrop(left, top, cropWidth, cropHeight);
+        image.setData(data);
+        int result;
+        try {
+            result = scanner.scanImage(image);
+        } finally {
+            image.setData(emptyData);//解除与灰度数组的关联，数组会被复用
+        }
+        return result == 0 ? null : scanner.getResults();
+    }
+
+    static String getSymbolData(Symbol sym) {
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
+            return new String(sym.getDataBytes(), StandardCharsets.UTF_8);
+        } else {
+            return sym.getData();
+        }
+    }
+
+    private void checkThread() {
+        if (Thread.currentThread() != owner) throw new IllegalStateException("DecoderEngine只能在获取它的线程中使用");
+    }
+
+    private void destroy() {
+        if (image != null) {
+            image.destroy();
+            image = null;
+        }
+        if (scanner != null) {
+            scanner.destroy();
+            scanner = null;
+        }
+        luma = new byte[0];
+    }
+
+    private static String getKey(Collection<BarcodeFormat> formats, int density) {
+        int[] ids = new int[formats.size()];
+        int i = 0;
+        for (BarcodeFormat format : formats) {
+            ids[i++] = format.getId();
+        }
+        Arrays.sort(ids);
+        return Arrays.toString(ids) + density;
+    }
+}
@@ -0,0 +1,60 @@
+package com.shouzhong.zbar;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 连续扫码时的去重
+ * <p>
+ * 以（码格式，内容）为键记录最近一次看到的时间，在时间窗口内再次看到的视为重复；
+ * 条目数超过上限时淘汰最久未看到的
+ */
+class DuplicateFilter {
+
+    private final LinkedHashMap<String, Long> lastSeen;
+    private long window;
+    private int maxSize;
+
+    DuplicateFilter(long window, int maxSize) {
+        this.window = window;
+        this.maxSize = maxSize;
+        lastSeen = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > DuplicateFilter.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * 设置时间窗口和最大条目数
+     */
+    synchronized void setWindow(long window, int maxSize) {
+        this.window = window;
+        this.maxSize = Math.max(1, maxSize);
+        while (lastSeen.size() > this.maxSize) {
+            Iterator<String> it = lastSeen.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * 记录一次识别结果
+     *
+     * @param type 码格式
+     * @param data 内容
+     * @param now 当前时间（毫秒）
+     * @return true为新结果，false为时间窗口内的重复结果
+     */
+    synchronized boolean accept(int type, String data, long now) {
+        String key = type + ":" + data;
+        Long time = lastSeen.put(key, now);//一直在视野中的条码会持续刷新时间
+        return time == null || now - time >= window;
+    }
+
+    synchronized void clear() {
+        lastSeen.clear();
+    }
+}
@@ -0,0 +1,246 @@
+package com.shouzhong.zbar;
+
+import android.graphics.Rect;
+import android.os.SystemClock;
+
+import net.sourceforge.zbar.Image;
+import net.sourceforge.zbar.ImageScanner;
+
+import java.util.ArrayDeque;
+
+/**
+ * 预览帧的解码线程池
+ * <p>
+ * 相机线程只负责把帧放入单帧槽位，解码在独立线程中进行；
+ * 若上一帧还未开始解码就来了新帧，旧帧直接丢弃（只保留最新的一帧），相机线程不会被解码阻塞<br/>
+ * 有多个解码线程时，连续的几帧会被并行解码，每个线程持有自己的ImageScanner（ImageScanner不是线程安全的）
+ */
+class FrameDecoder {
+
+    private final FrameHandler frameHandler;
+    private final ArrayDeque<Frame> freeFrames = new ArrayDeque<>();//复用Frame对象
+    private Frame pendingFrame;//等待解码的帧，最多一个
+    private boolean quit;
+    private int sequence;//帧序号，单调递增
+
+    interface FrameHandler {
+        /**
+         * 解码一帧，运行于解码线程
+         */
+        void decodeFrame(Frame frame, Worker worker);
+
+        /**
+         * 帧未被解码就被丢弃（被新帧顶替或解码线程已退出）
+         */
+        void dropFrame(Frame frame);
+
+        /**
+         * 等待解码的帧被解码线程取走，槽位空出，可以提交下一帧，运行于解码线程
+         */
+        void frameTaken();
+    }
+
+    /**
+     * 解码线程私有的资源，只在所属线程中使用
+     */
+    static class Worker {
+        final int index;
+        ImageScanner scanner;
+        int scannerVersion;//与ZBarScannerView中的配置版本不一致时需重建scanner
+        int cacheVersion;//与ZBarScannerView中的不一致时需重置scanner的帧间缓存
+        int density;//scanner当前的扫描线间隔
+        private Image image;//复用的zbar图像，预览尺寸变化时重建
+        int misses;//本线程连续识别失败的帧数
+        final int[] histogram = new int[TorchController.BINS];//扫码区域的亮度直方图
+        final int[] fingerprint = new int[SceneDetector.GRID * SceneDetector.GRID];//当前帧的分块亮度均值
+        private Image rotatedImage;//旋转重试用的zbar图像
+        private byte[] rotatedData = new byte[0];//旋转后的亮度，只会变大
+        int rotatedSize;//最近一次旋转后的边长
+        byte[] snapshotBuffer;//截图用的nv21缓冲区，只会变大
+        final Rect snapshotRect = new Rect();
+        private final byte[] emptyData = new byte[1];
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        /**
+         * 获取与预览尺寸一致的zbar图像，并绑定当前帧
+         */
+        Image bindImage(Frame frame) {
+            if (image == null || image.getWidth() != frame.width || image.getHeight() != frame.height) {
+                if (image != null) image.destroy();
+                image = new Image(frame.width, frame.height, "Y800");
+            }
+            image.setData(frame.data);
+            image.setCrop(frame.crop.left, frame.crop.top, frame.crop.width(), frame.crop.height());
+            image.setSequence(frame.sequence);
+            return image;
+        }
+
+        /**
+         * 解除zbar图像与预览帧的关联，需在归还帧的缓冲区之前调用
+         */
+        void unbindImage() {
+            if (image != null) image.setData(emptyData);
+        }
+
+        /**
+         * 把本帧的识别区域旋转45度后绑定到另一个zbar图像，用于旋转重试<br/>
+         * 旋转后的数据在本线程的缓冲区中，不引用预览帧
+         */
+        Image bindRotatedImage(Frame frame) {
+            int size = Utils.getRotated45Size(frame.crop.width(), frame.crop.height());
+            if (rotatedData.length < size * size) rotatedData = new byte[size * size];
+            Utils.rotateLuma45(frame.data, frame.width, frame.crop, rotatedData, size);
+            if (rotatedImage == null || rotatedImage.getWidth() != size) {
+                if (rotatedImage != null) rotatedImage.destroy();
+                rotatedImage = new Image(size, size, "Y800");
+            }
+            rotatedImage.setData(rotatedData);
+            rotatedSize = size;
+            return rotatedImage;
+        }
+
+        /**
+         * 释放native资源，在解码线程退出时调用
+         */
+        void release() {
+            if (image != null) {
+                image.destroy();
+                image = null;
+            }
+            if (rotatedImage != null) {
+                rotatedImage.destroy();
+                rotatedImage = null;
+            }
+            if (scanner != null) {
+                scanner.destroy();
+                scanner = null;
+            }
+        }
+    }
+
+    static class Frame {
+        byte[] data;
+        int width;
+        int height;
+        int sequence;
+        int rotationCount;//相机图像需要顺时针旋转几次（每次90度）
+        long timestamp;//SystemClock.elapsedRealtime
+        final Rect rect = new Rect();//扫码区域
+        final Rect crop = new Rect();//本帧实际识别的区域，默认与扫码区域相同
+    }
+
+    /**
+     * @param frameHandler
+     * @param threadCount 解码线程数
+     */
+    FrameDecoder(FrameHandler frameHandler, int threadCount) {
+        this.frameHandler = frameHandler;
+        for (int i = 0; i < threadCount; i++) {
+            final Worker worker = new Worker(i);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loop(worker);
+                    } finally {
+                        worker.release();
+                    }
+                }
+            }, "FrameDecoder-" + i);
+            thread.start();
+        }
+    }
+
+    /**
+     * 提交一帧，运行于相机线程，不会阻塞
+     */
+    void offer(byte[] data, int width, int height, Rect rect, int rotationCount) {
+        Frame dropped;
+        synchronized (this) {
+            Frame frame = freeFrames.poll();
+            if (frame == null) frame = new Frame();
+            frame.data = data;
+            frame.width = width;
+            frame.height = height;
+            frame.rect.set(rect);
+            frame.crop.set(rect);
+            frame.rotationCount = rotationCount;
+            frame.timestamp = SystemClock.elapsedRealtime();
+            frame.sequence = sequence++;
+            if (quit) {
+                dropped = frame;
+            } else {
+                dropped = pendingFrame;
+                pendingFrame = frame;
+                notifyAll();
+            }
+        }
+        if (dropped != null) drop(dropped);
+    }
+
+    /**
+     * 丢弃还未开始解码的帧
+     */
+    void clear() {
+        Frame dropped;
+        synchronized (this) {
+            dropped = pendingFrame;
+            pendingFrame = null;
+        }
+        if (dropped != null) drop(dropped);
+    }
+
+    /**
+     * 退出所有解码线程，正在解码的帧会继续完成（zbar的识别无法中途取消）
+     */
+    void quit() {
+        synchronized (this) {
+            quit = true;
+            notifyAll();
+        }
+        clear();
+    }
+
+    private void loop(Worker worker) {
+        while (true) {
+            Frame frame;
+            synchronized (this) {
+                while (!quit && pendingFrame == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        quit = true;
+                    }
+                }
+                if (quit) return;
+                frame = pendingFrame;
+                pendingFrame = null;
+            }
+            try {
+                frameHandler.frameTaken();
+                frameHandler.decodeFrame(frame, worker);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                release(frame);
+            }
+        }
+    }
+
+    private void drop(Frame frame) {
+        try {
+            frameHandler.dropFrame(frame);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        release(frame);
+    }
+
+    private synchronized void release(Frame frame) {
+        frame.data = null;
+        freeFrames.offer(frame);
+    }
+}
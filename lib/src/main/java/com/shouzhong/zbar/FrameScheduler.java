@@ -0,0 +1,160 @@
+package com.shouzhong.zbar;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import java.util.List;
+
+/**
+ * 根据识别耗时调整取帧的频率
+ * <p>
+ * 用指数加权移动平均（EWMA）统计每帧的识别耗时，按CPU预算（解码线程忙碌的时间比例）算出两帧的最小间隔，
+ * 间隔内到达的帧直接跳过，并把相机的预览帧率范围调到刚好够用的一档，让相机少出帧；
+ * 省电模式或发热时按比例降低预算
+ */
+class FrameScheduler {
+
+    private static final float ALPHA = 0.2f;//EWMA中新样本的权重
+    private static final long FPS_ADJUST_INTERVAL = 2000;//调整预览帧率的最小间隔（毫秒）
+    private static final long POWER_CHECK_INTERVAL = 5000;//查询省电模式的间隔（毫秒）
+
+    private volatile float budget = 0.5f;//每个解码线程忙碌的时间比例
+    private volatile int thermalLevel;//发热程度，0为正常
+    private float decodeMillis;//识别耗时的EWMA
+    private int samples;//已统计的帧数
+    private PowerManager powerManager;
+    private volatile boolean isPowerSaveMode;
+    //以下只在相机线程中使用
+    private long lastAcceptTime;
+    private long lastFpsAdjustTime;
+    private long lastPowerCheckTime;
+    private final int[] appliedFpsRange = new int[2];
+
+    /**
+     * @param budget 每个解码线程忙碌的时间比例，取值0~1
+     */
+    void setBudget(float budget) {
+        this.budget = Math.max(0.01f, Math.min(1f, budget));
+    }
+
+    /**
+     * @param level 发热程度，0为正常，越大预算越低（预算除以1+level）
+     */
+    void setThermalLevel(int level) {
+        this.thermalLevel = Math.max(0, level);
+    }
+
+    /**
+     * 记录一帧交给zbar识别的耗时（被过滤、跳过的帧不计入），运行于解码线程
+     */
+    synchronized void onDecoded(long nanos) {
+        float millis = nanos / 1000000f;
+        decodeMillis = samples == 0 ? millis : decodeMillis + ALPHA * (millis - decodeMillis);
+        samples++;
+    }
+
+    synchronized boolean hasSamples() {
+        return samples > 0;
+    }
+
+    synchronized float getDecodeMillis() {
+        return decodeMillis;
+    }
+
+    /**
+     * 实际的预算，考虑省电模式和发热
+     */
+    float getEffectiveBudget() {
+        float b = budget / (1 + thermalLevel);
+        return isPowerSaveMode ? b / 2 : b;
+    }
+
+    /**
+     * 两帧之间的最小间隔（毫秒）
+     *
+     * @param threadCount 解码线程数
+     */
+    long getMinInterval(int threadCount) {
+        return (long) (getDecodeMillis() / (getEffectiveBudget() * threadCount));
+    }
+
+    /**
+     * 是否识别这一帧，运行于相机线程
+     */
+    boolean accept(int threadCount) {
+        long now = SystemClock.elapsedRealtime();
+        checkPowerSaveMode(now);
+        if (now - lastAcceptTime < getMinInterval(threadCount)) return false;
+        lastAcceptTime = now;
+        return true;
+    }
+
+    /**
+     * 距离下一帧可以被识别还有多久（毫秒），运行于相机线程
+     */
+    long getWaitMillis(int threadCount) {
+        return Math.max(0, lastAcceptTime + getMinInterval(threadCount) - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * 按目标帧率调整相机的预览帧率范围，每FPS_ADJUST_INTERVAL最多一次，运行于相机线程<br/>
+     * 还没有识别耗时的统计时不调整
+     */
+    void adjustFpsRange(CameraWrapper wrapper, int threadCount) {
+        if (!hasSamples()) return;
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastFpsAdjustTime < FPS_ADJUST_INTERVAL) return;
+        lastFpsAdjustTime = now;
+        List<int[]> ranges = wrapper.getSupportedPreviewFpsRanges();
+        if (ranges == null || ranges.isEmpty()) return;
+        long interval = getMinInterval(threadCount);
+        int target = interval <= 0 ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, 1000L * 1000 / interval);//帧率×1000
+        //选最大帧率不低于目标的最低一档，没有则选最高的一档；最大帧率相同时选最小帧率最低（最宽）的，
+        //暗处自动曝光可以降低帧率、延长曝光时间
+        int[] chosen = null;
+        for (int[] range : ranges) {
+            int max = range[1];
+            boolean isWider = chosen != null && max == chosen[1] && range[0] < chosen[0];
+            if (chosen == null) {
+                chosen = range;
+            } else if (max >= target) {
+                if (chosen[1] < target || max < chosen[1] || isWider) chosen = range;
+            } else if (chosen[1] < target && (max > chosen[1] || isWider)) {
+                chosen = range;
+            }
+        }
+        if (chosen[0] == appliedFpsRange[0] && chosen[1] == appliedFpsRange[1]) return;
+        //设置失败（部分机型预览中不能修改帧率）时不再重复尝试同一档
+        appliedFpsRange[0] = chosen[0];
+        appliedFpsRange[1] = chosen[1];
+        try {
+            wrapper.setPreviewFpsRange(chosen[0], chosen[1]);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void checkPowerSaveMode(long now) {
+        if (powerManager == null || now - lastPowerCheckTime < POWER_CHECK_INTERVAL) return;
+        lastPowerCheckTime = now;
+        isPowerSaveMode = powerManager.isPowerSaveMode();
+    }
+
+    /**
+     * 重新开始统计，在打开相机时调用
+     */
+    synchronized void reset(Context context) {
+        decodeMillis = 0;
+        samples = 0;
+        lastAcceptTime = 0;
+        lastFpsAdjustTime = 0;
+        lastPowerCheckTime = 0;
+        appliedFpsRange[0] = appliedFpsRange[1] = 0;
+        isPowerSaveMode = false;
+        if (powerManager == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        }
+    }
+}
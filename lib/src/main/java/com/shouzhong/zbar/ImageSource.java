@@ -0,0 +1,79 @@
+package com.shouzhong.zbar;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 批量识别的图片来源
+ * <p>
+ * 图片在真正识别时才会加载，批量识别时同时加载的图片数不超过线程数；
+ * 文件、Uri和字节数组不会加载完整的图片，先识别缩略图，失败后逐步放大或分块识别
+ */
+public abstract class ImageSource {
+
+    /**
+     * 识别图片，运行于识别线程
+     *
+     * @return 识别出的条码内容，识别失败返回null
+     * @throws IOException 图片加载失败
+     */
+    abstract String decode(DecoderEngine engine) throws IOException;
+
+    /**
+     * 不加载完整的图片，见DecodeUtils.decode(File)
+     */
+    public static ImageSource fromFile(final File file) {
+        return new SampledSource(SampledDecoder.fromPath(file.getAbsolutePath()), file.toString());
+    }
+
+    /**
+     * 不加载完整的图片，见DecodeUtils.decode(File)
+     */
+    public static ImageSource fromUri(Context context, Uri uri) {
+        return new SampledSource(SampledDecoder.fromUri(context.getApplicationContext().getContentResolver(), uri), uri.toString());
+    }
+
+    /**
+     * 编码后的图片数据（如jpg文件的内容），不加载完整的图片
+     */
+    public static ImageSource fromBytes(byte[] data) {
+        return new SampledSource(SampledDecoder.fromBytes(data), "bytes[" + data.length + "]");
+    }
+
+    /**
+     * 识别后不会回收bmp
+     */
+    public static ImageSource fromBitmap(final Bitmap bmp) {
+        return new ImageSource() {
+            @Override
+            String decode(DecoderEngine engine) throws IOException {
+                if (bmp == null || bmp.isRecycled()) throw new IOException("图片不存在");
+                return engine.decode(bmp);
+            }
+        };
+    }
+
+    private static class SampledSource extends ImageSource {
+        private final SampledDecoder.Source source;
+        private final String name;
+
+        SampledSource(SampledDecoder.Source source, String name) {
+            this.source = source;
+            this.name = name;
+        }
+
+        @Override
+        String decode(DecoderEngine engine) throws IOException {
+            return SampledDecoder.decode(source, engine);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
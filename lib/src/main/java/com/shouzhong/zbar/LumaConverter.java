@@ -0,0 +1,93 @@
+package com.shouzhong.zbar;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多线程的图片转灰度
+ * <p>
+ * 把图片按行切成若干条，每条在一个线程中用自己的临时数组读取像素，直接写入共享的输出数组；
+ * 线程数根据图片的像素数和CPU核数决定，小图片直接在当前线程转换
+ */
+class LumaConverter {
+
+    private static final int STRIP_ROWS = 16;//每次读取的行数，决定临时数组的大小
+    private static final int MIN_PIXELS_PER_THREAD = 1024 * 1024;//每个线程至少处理的像素数
+
+    private static ExecutorService executor;
+
+    /**
+     * 根据图片尺寸决定的线程数
+     */
+    static int getParallelism(int width, int height) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        long n = (long) width * height / MIN_PIXELS_PER_THREAD;
+        return (int) Math.max(1, Math.min(cpus, n));
+    }
+
+    /**
+     * 转换整张图片的亮度
+     *
+     * @param out 长度需不小于宽*高
+     */
+    static void convert(final Bitmap bmp, final byte[] out) {
+        final int width = bmp.getWidth();
+        final int height = bmp.getHeight();
+        int parallelism = getParallelism(width, height);
+        if (parallelism <= 1) {
+            DecodeUtils.convertLuma(bmp, 0, height, new int[width * Math.min(STRIP_ROWS, height)], out);
+            return;
+        }
+        int rowsPerTask = (height + parallelism - 1) / parallelism;
+        final CountDownLatch latch = new CountDownLatch(parallelism - 1);
+        final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        ExecutorService executor = getExecutor();
+        //前parallelism-1条交给线程池，最后一条在当前线程转换
+        for (int i = 0; i < parallelism - 1; i++) {
+            final int top = i * rowsPerTask;
+            final int bottom = Math.min(height, top + rowsPerTask);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        DecodeUtils.convertLuma(bmp, top, bottom, new int[width * STRIP_ROWS], out);
+                    } catch (RuntimeException e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        int top = (parallelism - 1) * rowsPerTask;
+        if (top < height) DecodeUtils.convertLuma(bmp, top, height, new int[width * STRIP_ROWS], out);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("转换被中断");
+        }
+        if (error.get() != null) throw error.get();
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "LumaConverter-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
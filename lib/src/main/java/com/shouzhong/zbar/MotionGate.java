@@ -0,0 +1,99 @@
+package com.shouzhong.zbar;
+
+import android.os.SystemClock;
+
+/**
+ * 根据加速度决定是否识别预览帧
+ * <p>
+ * 用低通滤波估计重力，加速度减去重力即手机的运动；运动超过阈值时视为晃动，
+ * 晃动期间的帧大多是模糊的，只识别其中的一部分或全部跳过；停止晃动一段时间后恢复每帧识别
+ */
+class MotionGate implements SensorController.MotionListener {
+
+    private static final float ALPHA = 0.8f;//重力的低通滤波系数
+
+    private volatile float threshold = 1.5f;//运动阈值（m/s²）
+    private volatile long settleMillis = 300;//运动低于阈值多久后视为静止
+    private volatile int decodeEvery;//晃动期间每几帧识别一次，0为全部跳过
+    private float gravityX, gravityY, gravityZ;
+    private boolean hasGravity;
+    private volatile long lastMoveTime = Long.MIN_VALUE / 2;//最近一次超过阈值的时间（elapsedRealtime）
+    private int movingFrames;//本次晃动中到达的帧数
+    private volatile long skippedFrames;
+    private volatile long movingFramesTotal;
+
+    /**
+     * @param threshold 运动阈值（m/s²）
+     * @param settleMillis 运动低于阈值多久后恢复每帧识别
+     * @param decodeEvery 晃动期间每几帧识别一次，0为全部跳过
+     */
+    void setParams(float threshold, long settleMillis, int decodeEvery) {
+        this.threshold = threshold;
+        this.settleMillis = settleMillis;
+        this.decodeEvery = Math.max(0, decodeEvery);
+    }
+
+    /**
+     * 传感器线程（主线程）回调
+     */
+    @Override
+    public void onAcceleration(float x, float y, float z) {
+        if (!hasGravity) {
+            gravityX = x;
+            gravityY = y;
+            gravityZ = z;
+            hasGravity = true;
+            return;
+        }
+        gravityX = ALPHA * gravityX + (1 - ALPHA) * x;
+        gravityY = ALPHA * gravityY + (1 - ALPHA) * y;
+        gravityZ = ALPHA * gravityZ + (1 - ALPHA) * z;
+        float dx = x - gravityX, dy = y - gravityY, dz = z - gravityZ;
+        float t = threshold;
+        if (dx * dx + dy * dy + dz * dz > t * t) lastMoveTime = SystemClock.elapsedRealtime();
+    }
+
+    boolean isMoving() {
+        return SystemClock.elapsedRealtime() - lastMoveTime < settleMillis;
+    }
+
+    /**
+     * 是否识别这一帧，运行于相机线程
+     */
+    boolean accept() {
+        if (!isMoving()) {
+            movingFrames = 0;
+            return true;
+        }
+        movingFramesTotal++;
+        int every = decodeEvery;
+        if (every > 0 && ++movingFrames % every == 0) return true;
+        skippedFrames++;
+        return false;
+    }
+
+    /**
+     * 晃动期间被跳过的帧数
+     */
+    long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * 晃动期间到达的帧数（包括被识别的）
+     */
+    long getMovingFrames() {
+        return movingFramesTotal;
+    }
+
+    /**
+     * 重新开始，清空重力估计和计数
+     */
+    void reset() {
+        hasGravity = false;
+        lastMoveTime = Long.MIN_VALUE / 2;
+        movingFrames = 0;
+        skippedFrames = 0;
+        movingFramesTotal = 0;
+    }
+}
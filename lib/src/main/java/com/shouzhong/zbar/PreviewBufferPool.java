@@ -0,0 +1,71 @@
+package com.shouzhong.zbar;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+
+import java.util.ArrayList;
+
+/**
+ * 预览帧缓冲池
+ * <p>
+ * 配合Camera.setPreviewCallbackWithBuffer使用，预先分配固定数量的NV21缓冲区并循环使用，
+ * 稳定扫码时不再为每一帧分配新的byte[]
+ */
+class PreviewBufferPool {
+
+    private final int bufferSize;
+    private final byte[][] buffers;
+    private final ArrayList<byte[]> heldBuffers;//暂停期间扣下的缓冲区
+    private boolean paused;
+
+    PreviewBufferPool(int previewWidth, int previewHeight, int count) {
+        bufferSize = previewWidth * previewHeight * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        buffers = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            buffers[i] = new byte[bufferSize];
+        }
+        heldBuffers = new ArrayList<>(count);
+    }
+
+    /**
+     * 把所有缓冲区交给相机，需在startPreview之前调用
+     */
+    synchronized void attach(Camera camera) {
+        paused = false;
+        heldBuffers.clear();
+        for (byte[] buffer : buffers) {
+            camera.addCallbackBuffer(buffer);
+        }
+    }
+
+    /**
+     * 一帧处理完毕，归还缓冲区；暂停期间则先扣下，等resume时再归还
+     */
+    synchronized void recycle(Camera camera, byte[] data) {
+        if (data == null || data.length != bufferSize) return;
+        if (paused) {
+            if (!heldBuffers.contains(data)) heldBuffers.add(data);
+            return;
+        }
+        camera.addCallbackBuffer(data);
+    }
+
+    /**
+     * 暂停取帧（如识别成功后），之后到达的帧都会被扣下
+     */
+    synchronized void pause(byte[] data) {
+        paused = true;
+        if (data != null && data.length == bufferSize && !heldBuffers.contains(data)) heldBuffers.add(data);
+    }
+
+    /**
+     * 恢复取帧，归还所有被扣下的缓冲区
+     */
+    synchronized void resume(Camera camera) {
+        paused = false;
+        for (int i = 0; i < heldBuffers.size(); i++) {
+            camera.addCallbackBuffer(heldBuffers.get(i));
+        }
+        heldBuffers.clear();
+    }
+}
@@ -0,0 +1,80 @@
+package com.shouzhong.zbar;
+
+import android.graphics.Rect;
+
+import net.sourceforge.zbar.Symbol;
+import net.sourceforge.zbar.SymbolSet;
+
+/**
+ * 识别区域跟踪
+ * <p>
+ * 识别成功后记下条码在预览图像中的位置，之后的帧只识别这个位置加上一圈运动余量的区域；
+ * 连续识别失败若干次后回到完整的扫码区域
+ */
+class RoiTracker {
+
+    private final Rect lastBounds = new Rect();//上次识别到的条码的外接矩形，预览图像坐标
+    private boolean tracking;
+    private int misses;
+    private int maxMisses;
+    private float margin;
+
+    RoiTracker(int maxMisses, float margin) {
+        setParams(maxMisses, margin);
+    }
+
+    synchronized void setParams(int maxMisses, float margin) {
+        this.maxMisses = Math.max(1, maxMisses);
+        this.margin = Math.max(0, margin);
+    }
+
+    /**
+     * 计算本帧的识别区域
+     *
+     * @param fullRect 完整的扫码区域
+     * @param out 本帧的识别区域
+     */
+    synchronized void getCrop(Rect fullRect, Rect out) {
+        out.set(fullRect);
+        if (!tracking) return;
+        //余量按条码的长边计算，一维码的外接矩形可能很扁，至少保留扫码区域短边的1/8
+        int size = Math.max(lastBounds.width(), lastBounds.height());
+        int extra = Math.max((int) (size * margin), Math.min(fullRect.width(), fullRect.height()) / 8);
+        if (!out.intersect(lastBounds.left - extra, lastBounds.top - extra, lastBounds.right + extra, lastBounds.bottom + extra)) {
+            out.set(fullRect);
+        }
+    }
+
+    /**
+     * 识别成功，记录所有条码的外接矩形
+     */
+    synchronized void onHit(SymbolSet syms) {
+        boolean found = false;
+        for (Symbol sym : syms) {
+            int[] bounds = sym.getBounds();
+            if (bounds == null) continue;
+            if (!found) {
+                lastBounds.set(bounds[0], bounds[1], bounds[0] + bounds[2], bounds[1] + bounds[3]);
+                found = true;
+            } else {
+                lastBounds.union(bounds[0], bounds[1], bounds[0] + bounds[2], bounds[1] + bounds[3]);
+            }
+        }
+        if (found) {
+            tracking = true;
+            misses = 0;
+        }
+    }
+
+    /**
+     * 识别失败，连续失败maxMisses次后回到完整的扫码区域
+     */
+    synchronized void onMiss() {
+        if (tracking && ++misses >= maxMisses) reset();
+    }
+
+    synchronized void reset() {
+        tracking = false;
+        misses = 0;
+    }
+}
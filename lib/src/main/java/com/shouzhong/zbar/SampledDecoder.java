@@ -0,0 +1,199 @@
+package com.shouzhong.zbar;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 不加载完整图片的识别
+ * <p>
+ * 先用较大的inSampleSize解码出缩略图识别，失败后逐级减小inSampleSize；
+ * 当整张图解码后超过MAX_PIXELS时，改用BitmapRegionDecoder分块解码，
+ * 识别成功即停止，内存占用只与块的大小有关
+ */
+class SampledDecoder {
+
+    private static final int START_SIZE = 1024;//第一次尝试时长边的最大像素
+    private static final int MAX_PIXELS = 2048 * 2048;//整张解码的最大像素数，超过则分块
+    private static final int TILE_SIZE = 2048;//分块的边长（解码后的像素）
+
+    /**
+     * 可重复读取的图片来源
+     */
+    interface Source {
+        /**
+         * @return 不支持分块解码时返回null
+         */
+        BitmapRegionDecoder newRegionDecoder() throws IOException;
+
+        Bitmap decode(BitmapFactory.Options options) throws IOException;
+    }
+
+    static Source fromPath(final String path) {
+        return new Source() {
+            @Override
+            public BitmapRegionDecoder newRegionDecoder() throws IOException {
+                return BitmapRegionDecoder.newInstance(path, false);
+            }
+
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeFile(path, options);
+            }
+        };
+    }
+
+    static Source fromBytes(final byte[] data) {
+        return new Source() {
+            @Override
+            public BitmapRegionDecoder newRegionDecoder() throws IOException {
+                return BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+            }
+
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            }
+        };
+    }
+
+    /**
+     * 每次都重新打开，不会把整个文件读入内存
+     */
+    static Source fromUri(final ContentResolver resolver, final Uri uri) {
+        return new Source() {
+            @Override
+            public BitmapRegionDecoder newRegionDecoder() throws IOException {
+                InputStream is = open();
+                try {
+                    return BitmapRegionDecoder.newInstance(is, false);
+                } finally {
+                    is.close();
+                }
+            }
+
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) throws IOException {
+                InputStream is = open();
+                try {
+                    return BitmapFactory.decodeStream(is, null, options);
+                } finally {
+                    is.close();
+                }
+            }
+
+            private InputStream open() throws IOException {
+                InputStream is = resolver.openInputStream(uri);
+                if (is == null) throw new FileNotFoundException(uri.toString());
+                return is;
+            }
+        };
+    }
+
+    /**
+     * 流只能读一次，先读成字节数组（压缩后的大小）
+     */
+    static Source fromStream(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return fromBytes(out.toByteArray());
+    }
+
+    /**
+     * @return 识别出的条码内容，识别失败返回null
+     * @throws IOException 图片无法解析
+     */
+    static String decode(Source source, DecoderEngine engine) throws IOException {
+        BitmapRegionDecoder region;
+        try {
+            region = source.newRegionDecoder();
+        } catch (IOException e) {
+            region = null;//格式不支持分块解码
+        }
+        try {
+            int width, height;
+            if (region != null) {
+                width = region.getWidth();
+                height = region.getHeight();
+            } else {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                source.decode(options);
+                width = options.outWidth;
+                height = options.outHeight;
+            }
+            if (width <= 0 || height <= 0) throw new IOException("无法解析图片");
+            for (int sample = getStartSample(width, height); sample >= 1; sample /= 2) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = sample;
+                if ((long) (width / sample) * (height / sample) <= MAX_PIXELS) {
+                    Bitmap bmp = region != null ? region.decodeRegion(new Rect(0, 0, width, height), options) : source.decode(options);
+                    String result = decodeAndRecycle(engine, bmp);
+                    if (result != null) return result;
+                } else if (region != null) {
+                    String result = decodeTiles(region, width, height, options, engine);
+                    if (result != null) return result;
+                } else {
+                    break;//不支持分块解码，不再尝试更大的图
+                }
+            }
+            return null;
+        } finally {
+            if (region != null) region.recycle();
+        }
+    }
+
+    /**
+     * 分块解码，相邻的块重叠1/4，避免条码被切断
+     */
+    private static String decodeTiles(BitmapRegionDecoder region, int width, int height, BitmapFactory.Options options, DecoderEngine engine) {
+        int tile = TILE_SIZE * options.inSampleSize;
+        int step = tile - tile / 4;
+        Rect rect = new Rect();
+        for (int top = 0; ; top += step) {
+            int bottom = Math.min(top + tile, height);
+            for (int left = 0; ; left += step) {
+                int right = Math.min(left + tile, width);
+                rect.set(left, top, right, bottom);
+                String result = decodeAndRecycle(engine, region.decodeRegion(rect, options));
+                if (result != null) return result;
+                if (right == width) break;
+            }
+            if (bottom == height) break;
+        }
+        return null;
+    }
+
+    private static String decodeAndRecycle(DecoderEngine engine, Bitmap bmp) {
+        if (bmp == null) return null;
+        try {
+            return engine.decode(bmp);
+        } finally {
+            bmp.recycle();
+        }
+    }
+
+    /**
+     * 第一次尝试的inSampleSize，使长边不超过START_SIZE
+     */
+    private static int getStartSample(int width, int height) {
+        int sample = 1;
+        int max = Math.max(width, height);
+        while (max / sample > START_SIZE) {
+            sample *= 2;
+        }
+        return sample;
+    }
+}
@@ -0,0 +1,92 @@
+package com.shouzhong.zbar;
+
+import android.graphics.Point;
+
+/**
+ * 识别结果
+ * <p>
+ * 创建后不可修改
+ */
+public final class ScanResult {
+
+    private final byte[] data;
+    private final String text;
+    private final BarcodeFormat format;
+    private final Point[] location;
+    private final int quality;
+    private final int orientation;
+    private final long timestamp;
+    private final int level;
+
+    ScanResult(byte[] data, String text, BarcodeFormat format, Point[] location, int quality, int orientation, long timestamp, int level) {
+        this.data = data;
+        this.text = text;
+        this.format = format;
+        this.location = location;
+        this.quality = quality;
+        this.orientation = orientation;
+        this.timestamp = timestamp;
+        this.level = level;
+    }
+
+    /**
+     * 条码的原始数据
+     */
+    public byte[] getData() {
+        return data == null ? null : data.clone();
+    }
+
+    /**
+     * 条码内容
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * 码格式
+     */
+    public BarcodeFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * 条码的位置（多边形的顶点，顺时针），zbar未提供位置时为空数组<br/>
+     * 相机扫码时为ZBarScannerView中的坐标，识别图片时为图片中的坐标
+     */
+    public Point[] getLocation() {
+        Point[] points = new Point[location.length];
+        for (int i = 0; i < location.length; i++) {
+            points[i] = new Point(location[i].x, location[i].y);
+        }
+        return points;
+    }
+
+    /**
+     * 识别质量，数值越大越可靠
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * 条码方向，见net.sourceforge.zbar.Orientation
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * 帧的时间戳（SystemClock.elapsedRealtime）
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * 识别成功时所用的扫描层级，即ZBarScannerView.setDecodeLevels中的下标
+     */
+    public int getLevel() {
+        return level;
+    }
+}
@@ -0,0 +1,13 @@
+package com.shouzhong.zbar;
+
+import java.util.List;
+
+public interface ScanResultCallback {
+
+    /**
+     * @param results 同一帧中识别出的条码，不可修改
+     * @param path 保存的图片路径，未开启保存时为null
+     */
+    void result(List<ScanResult> results, String path);
+
+}
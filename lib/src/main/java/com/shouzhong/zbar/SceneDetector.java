@@ -0,0 +1,116 @@
+package com.shouzhong.zbar;
+
+import android.graphics.Rect;
+
+/**
+ * 静止画面检测
+ * <p>
+ * 把识别区域分成GRID*GRID块，每块稀疏取样求亮度均值，作为这一帧的指纹；
+ * 识别失败时记下指纹，之后指纹与之相近（各块均值的平均差小于阈值）的帧画面没有变化，再识别也会失败，直接跳过；
+ * 画面一变化就恢复识别，连续跳过一定帧数后也会强制识别一次（例如对焦完成后画面变清晰但亮度几乎不变）
+ */
+class SceneDetector {
+
+    static final int GRID = 8;
+    private static final int SAMPLES_PER_BLOCK = 4;//每块每个方向取样的点数
+
+    private final int[] missed = new int[GRID * GRID];//最近一次识别失败的指纹
+    private final Rect missedCrop = new Rect();
+    private boolean hasMissed;
+    private int skipped;//连续跳过的帧数
+    private volatile int threshold = 4;//各块均值的平均差
+    private volatile int maxSkip = 30;
+    private volatile long skippedFrames;
+
+    /**
+     * @param threshold 各块亮度均值的平均差小于多少视为没有变化
+     * @param maxSkip 连续跳过多少帧后强制识别一次
+     */
+    void setParams(int threshold, int maxSkip) {
+        this.threshold = Math.max(0, threshold);
+        this.maxSkip = Math.max(1, maxSkip);
+    }
+
+    /**
+     * 计算指纹并判断是否识别这一帧，运行于解码线程
+     *
+     * @param fingerprint 解码线程的指纹数组，长度GRID*GRID，识别失败时交给onMiss
+     */
+    boolean accept(FrameDecoder.Frame frame, int[] fingerprint) {
+        compute(frame.data, frame.width, frame.crop, fingerprint);
+        synchronized (this) {
+            if (!hasMissed || !missedCrop.equals(frame.crop) || skipped >= maxSkip) {
+                skipped = 0;
+                return true;
+            }
+            int diff = 0;
+            for (int i = 0; i < missed.length; i++) {
+                diff += Math.abs(fingerprint[i] - missed[i]);
+            }
+            if (diff >= threshold * missed.length) {
+                hasMissed = false;//画面变化了
+                skipped = 0;
+                return true;
+            }
+            skipped++;
+            skippedFrames++;
+            return false;
+        }
+    }
+
+    /**
+     * 识别失败，记下这一帧的指纹
+     */
+    synchronized void onMiss(FrameDecoder.Frame frame, int[] fingerprint) {
+        System.arraycopy(fingerprint, 0, missed, 0, missed.length);
+        missedCrop.set(frame.crop);
+        hasMissed = true;
+    }
+
+    /**
+     * 识别成功或需要重新开始时调用
+     */
+    synchronized void clear() {
+        hasMissed = false;
+        skipped = 0;
+    }
+
+    /**
+     * 因画面静止被跳过的帧数
+     */
+    long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    synchronized void reset() {
+        clear();
+        skippedFrames = 0;
+    }
+
+    /**
+     * 计算各块的亮度均值
+     */
+    static void compute(byte[] data, int width, Rect crop, int[] out) {
+        int blockWidth = Math.max(1, crop.width() / GRID);
+        int blockHeight = Math.max(1, crop.height() / GRID);
+        int stepX = Math.max(1, blockWidth / SAMPLES_PER_BLOCK);
+        int stepY = Math.max(1, blockHeight / SAMPLES_PER_BLOCK);
+        for (int by = 0; by < GRID; by++) {
+            int top = crop.top + by * blockHeight;
+            int bottom = Math.min(crop.bottom, top + blockHeight);
+            for (int bx = 0; bx < GRID; bx++) {
+                int left = crop.left + bx * blockWidth;
+                int right = Math.min(crop.right, left + blockWidth);
+                int sum = 0, count = 0;
+                for (int y = top + stepY / 2; y < bottom; y += stepY) {
+                    int row = y * width;
+                    for (int x = left + stepX / 2; x < right; x += stepX) {
+                        sum += data[row + x] & 0xFF;
+                        count++;
+                    }
+                }
+                out[by * GRID + bx] = count == 0 ? 0 : sum / count;
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@ class SensorController implements SensorEventListener {
     private Sensor mSensor;
 
     private Callback callback;
+    private MotionListener motionListener;
 
     private float mX, mY, mZ;
     private long currentTime = 0;
@@ -35,6 +36,7 @@ class SensorController implements SensorEventListener {
         float x = event.values[0];
         float y = event.values[1];
         float z = event.values[2];
+        if (motionListener != null) motionListener.onAcceleration(x, y, z);
         if (!isMove) isMove = (mX - x) * (mX - x) + (mY - y) * (mY - y) + (mZ - z) * (mZ - z) > 2;
         long time = System.currentTimeMillis();
         if (isMove && time - currentTime > delay) {
@@ -54,7 +56,8 @@ class SensorController implements SensorEventListener {
     void onStart() {
         if (callback != null) callback.onChanged();
         if (mSensorManager == null || mSensor == null) return;
-        mSensorManager.registerListener(this, mSensor, SensorManager.SENSOR_DELAY_NORMAL);
+        //需要判断晃动时提高采样率，否则跟不上帧率
+        mSensorManager.registerListener(this, mSensor, motionListener != null ? SensorManager.SENSOR_DELAY_UI : SensorManager.SENSOR_DELAY_NORMAL);
     }
 
     void onStop() {
@@ -70,7 +73,21 @@ class SensorController implements SensorEventListener {
         this.callback = callback;
     }
 
+    /**
+     * 需在onStart之前调用
+     */
+    void setMotionListener(MotionListener motionListener) {
+        this.motionListener = motionListener;
+    }
+
     public interface Callback {
         void onChanged();
     }
+
+    /**
+     * 接收每一次的加速度数据
+     */
+    interface MotionListener {
+        void onAcceleration(float x, float y, float z);
+    }
 }
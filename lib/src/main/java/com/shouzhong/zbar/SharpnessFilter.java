@@ -0,0 +1,101 @@
+package com.shouzhong.zbar;
+
+/**
+ * 预览帧的清晰度估计
+ * <p>
+ * 在识别区域中稀疏地取样，以相邻像素亮度差的平方的均值（梯度能量）作为清晰度；
+ * 阈值随最近的清晰帧自适应：记录缓慢衰减的峰值，低于峰值一定比例的帧视为模糊，不交给zbar识别；
+ * 连续模糊多帧时请求对焦<br/>
+ * 取样不超过SAMPLES_PER_AXIS²个点，不分配内存
+ */
+class SharpnessFilter {
+
+    private static final int SAMPLES_PER_AXIS = 48;//每个方向最多取样的点数
+    private static final int WARM_UP_FRAMES = 5;//开始的几帧只记录峰值，不过滤
+    private static final float DECAY = 0.98f;//峰值每帧的衰减
+
+    private volatile float ratio = 0.35f;//低于峰值的这个比例视为模糊
+    private volatile int focusAfter = 10;//连续模糊多少帧后请求对焦，0为不请求
+    private float peak;
+    private int frames;
+    private int blurryFrames;//连续模糊的帧数
+    private volatile long skippedFrames;
+    private Runnable focusRequest;
+
+    /**
+     * @param focusRequest 请求对焦，运行于解码线程，需自行切换线程
+     */
+    SharpnessFilter(Runnable focusRequest) {
+        this.focusRequest = focusRequest;
+    }
+
+    /**
+     * @param ratio 清晰度低于最近峰值的这个比例视为模糊
+     * @param focusAfter 连续模糊多少帧后请求对焦，0为不请求
+     */
+    void setParams(float ratio, int focusAfter) {
+        this.ratio = ratio;
+        this.focusAfter = Math.max(0, focusAfter);
+    }
+
+    /**
+     * 是否识别这一帧，运行于解码线程
+     */
+    boolean accept(FrameDecoder.Frame frame) {
+        float score = estimate(frame.data, frame.width, frame.crop.left, frame.crop.top, frame.crop.right, frame.crop.bottom);
+        boolean requestFocus = false;
+        synchronized (this) {
+            peak = Math.max(score, peak * DECAY);
+            if (frames < WARM_UP_FRAMES) {
+                frames++;
+                return true;
+            }
+            if (score >= peak * ratio) {
+                blurryFrames = 0;
+                return true;
+            }
+            skippedFrames++;
+            if (focusAfter > 0 && ++blurryFrames >= focusAfter) {
+                blurryFrames = 0;
+                requestFocus = true;
+            }
+        }
+        if (requestFocus) focusRequest.run();
+        return false;
+    }
+
+    /**
+     * 因模糊被跳过的帧数
+     */
+    long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    synchronized void reset() {
+        peak = 0;
+        frames = 0;
+        blurryFrames = 0;
+        skippedFrames = 0;
+    }
+
+    /**
+     * 估计区域的清晰度（梯度能量）
+     */
+    static float estimate(byte[] data, int width, int left, int top, int right, int bottom) {
+        int stepX = Math.max(1, (right - left - 1) / SAMPLES_PER_AXIS);
+        int stepY = Math.max(1, (bottom - top - 1) / SAMPLES_PER_AXIS);
+        long sum = 0;
+        int count = 0;
+        for (int y = top; y < bottom - 1; y += stepY) {
+            int row = y * width;
+            for (int x = left; x < right - 1; x += stepX) {
+                int p = data[row + x] & 0xFF;
+                int dx = (data[row + x + 1] & 0xFF) - p;
+                int dy = (data[row + width + x] & 0xFF) - p;
+                sum += dx * dx + dy * dy;
+                count++;
+            }
+        }
+        return count == 0 ? 0 : (float) sum / count;
+    }
+}
@@ -0,0 +1,13 @@
+package com.shouzhong.zbar;
+
+public interface SnapshotCallback {
+
+    /**
+     * 异步保存的截图已写完，运行于主线程
+     *
+     * @param timestamp 截图所属帧的时间戳，与同一帧的ScanResult.getTimestamp一致
+     * @param path 图片路径，保存失败或队列已满被丢弃时为null
+     */
+    void saved(long timestamp, String path);
+
+}
@@ -0,0 +1,156 @@
+package com.shouzhong.zbar;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 截图的存放目录
+ * <p>
+ * 截图保存在缓存目录下的单独子目录中，按写入顺序记录在内存索引里，
+ * 超过总大小、数量或存放时间的上限时从最旧的开始删除；
+ * 索引在打开相机时于后台线程中扫描一次目录建立（warmUp），之后的写入和淘汰都不再列目录；
+ * 只索引和删除由本类在截图目录中创建的文件（见FILE_NAME），目录外的文件和其他名字的文件都不会被动到
+ */
+class SnapshotStore {
+
+    private static final String DIR_NAME = "zbar_snapshots";
+    private static final Pattern FILE_NAME = Pattern.compile("img_\\d+_\\d+\\.jpg");//newFile创建的文件名
+    private static SnapshotStore instance;
+
+    private final File dir;
+    private final LinkedHashMap<String, long[]> index = new LinkedHashMap<>();//文件名 -> {大小, 写入时间}，最旧的在前
+    private boolean isIndexed;
+    private long totalBytes;
+    private int sequence;//同一毫秒内的序号
+    private long maxBytes = 20 * 1024 * 1024;
+    private int maxCount = 200;
+    private long maxAge = 24 * 60 * 60 * 1000;
+
+    private SnapshotStore(File dir) {
+        this.dir = dir;
+    }
+
+    static synchronized SnapshotStore get(Context context) {
+        if (instance == null) {
+            File root = context.getExternalCacheDir();
+            if (root == null) root = context.getCacheDir();//外部存储不可用
+            instance = new SnapshotStore(new File(root, DIR_NAME));
+        }
+        return instance;
+    }
+
+    /**
+     * 在后台线程中建立索引，避免第一次保存时在解码线程中列目录；已建立时不做任何操作
+     */
+    void warmUp() {
+        synchronized (this) {
+            if (isIndexed) return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SnapshotStore.this) {
+                    ensureIndex();
+                }
+            }
+        }, "SnapshotStore");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 设置上限，超过任意一项都会删除最旧的截图；小于等于0表示不限制
+     *
+     * @param maxBytes 总大小（字节）
+     * @param maxCount 数量
+     * @param maxAge 存放时间（毫秒）
+     */
+    synchronized void setLimits(long maxBytes, int maxCount, long maxAge) {
+        this.maxBytes = maxBytes;
+        this.maxCount = maxCount;
+        this.maxAge = maxAge;
+        if (isIndexed) trim();
+    }
+
+    /**
+     * 创建一个不重名的空文件
+     */
+    synchronized File newFile() throws IOException {
+        ensureIndex();
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("无法创建目录" + dir);
+        long now = System.currentTimeMillis();
+        while (true) {
+            File file = new File(dir, "img_" + now + "_" + (sequence++) + ".jpg");
+            if (!index.containsKey(file.getName()) && file.createNewFile()) return file;
+        }
+    }
+
+    /**
+     * 文件写完后加入索引，并按上限删除旧文件
+     */
+    synchronized void add(File file) {
+        ensureIndex();
+        put(file.getName(), file.length(), System.currentTimeMillis());
+        trim();
+    }
+
+    /**
+     * 删除写入失败的文件
+     */
+    synchronized void discard(File file) {
+        long[] entry = index.remove(file.getName());
+        if (entry != null) totalBytes -= entry[0];
+        file.delete();
+    }
+
+    private void put(String name, long size, long time) {
+        long[] old = index.put(name, new long[] {size, time});
+        if (old != null) totalBytes -= old[0];
+        totalBytes += size;
+    }
+
+    private void trim() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, long[]>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, long[]> eldest = it.next();
+            boolean over = (maxBytes > 0 && totalBytes > maxBytes)
+                    || (maxCount > 0 && index.size() > maxCount)
+                    || (maxAge > 0 && now - eldest.getValue()[1] > maxAge);
+            if (!over) break;
+            new File(dir, eldest.getKey()).delete();
+            totalBytes -= eldest.getValue()[0];
+            it.remove();
+        }
+    }
+
+    /**
+     * 扫描目录，按修改时间建立索引，只进行一次
+     */
+    private void ensureIndex() {
+        if (isIndexed) return;
+        isIndexed = true;
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long t1 = f1.lastModified(), t2 = f2.lastModified();
+                return t1 < t2 ? -1 : t1 == t2 ? 0 : 1;
+            }
+        });
+        for (File file : files) {
+            if (!file.isFile() || !FILE_NAME.matcher(file.getName()).matches()) continue;
+            put(file.getName(), file.length(), file.lastModified());
+        }
+        trim();
+    }
+}
@@ -0,0 +1,172 @@
+package com.shouzhong.zbar;
+
+import android.graphics.Rect;
+
+import java.util.ArrayDeque;
+
+/**
+ * 异步保存截图
+ * <p>
+ * 解码线程只把截取的nv21数据复制到任务的缓冲区中（prepare），编码和写文件在单独的线程中进行，识别结果无需等待；
+ * 复制需在返回识别结果之前完成，之后预览帧的缓冲区随时可能被相机覆盖；
+ * 任务对象（连同缓冲区）循环使用，数量固定，即队列的容量；缓冲区只会变大<br/>
+ * 队列满时按策略丢弃这张截图或阻塞解码线程，直到有任务写完
+ */
+class SnapshotWriter {
+
+    static final int POLICY_DROP = 0;//队列满时丢弃
+    static final int POLICY_BLOCK = 1;//队列满时阻塞解码线程
+
+    /**
+     * 把nv21编码并保存，运行于写文件的线程
+     */
+    interface Encoder {
+        /**
+         * @return 图片路径，失败返回null
+         */
+        String save(byte[] nv21, int width, int height);
+    }
+
+    interface Listener {
+        /**
+         * 截图保存完成，运行于写文件的线程
+         *
+         * @param timestamp 帧的时间戳，与ScanResult.getTimestamp一致
+         * @param path 图片路径，保存失败或被丢弃时为null
+         */
+        void saved(long timestamp, String path);
+    }
+
+    static class Job {
+        byte[] data;
+        int width;
+        int height;
+        long timestamp;
+    }
+
+    private final Encoder encoder;
+    private final Listener listener;
+    private final int policy;
+    private final ArrayDeque<Job> freeJobs = new ArrayDeque<>();
+    private final ArrayDeque<Job> pendingJobs = new ArrayDeque<>();
+    private boolean quit;
+
+    /**
+     * @param capacity 队列容量，小于1时按1处理
+     * @param policy 队列满时的策略
+     */
+    SnapshotWriter(Encoder encoder, int capacity, int policy, Listener listener) {
+        this.encoder = encoder;
+        this.policy = policy;
+        this.listener = listener;
+        for (int i = 0; i < Math.max(1, capacity); i++) {
+            freeJobs.offer(new Job());
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "SnapshotWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 截取扫码区域（按frame.rotationCount旋转）复制到一个空闲的任务中，运行于解码线程<br/>
+     * 返回后不再引用frame.data，可以归还预览帧的缓冲区；队列满且策略为阻塞时会在复制之前等待
+     *
+     * @return 填好数据的任务，需交给submit；队列已满且策略为丢弃、区域为空或已退出时返回null
+     */
+    Job prepare(FrameDecoder.Frame frame) {
+        Rect rect = new Rect(frame.rect);
+        Utils.alignNv21(rect);
+        if (rect.isEmpty()) return null;
+        Job job = obtain(rect.width() * rect.height() * 3 / 2);
+        if (job == null) return null;
+        Utils.cropNv21(frame.data, frame.width, frame.height, rect, frame.rotationCount, job.data);
+        boolean swap = frame.rotationCount % 2 == 1;
+        job.width = swap ? rect.height() : rect.width();
+        job.height = swap ? rect.width() : rect.height();
+        job.timestamp = frame.timestamp;
+        return job;
+    }
+
+    /**
+     * 获取一个空闲的任务
+     *
+     * @param size 需要的缓冲区大小
+     * @return 队列已满且策略为丢弃，或已退出时返回null
+     */
+    private synchronized Job obtain(int size) {
+        while (!quit && freeJobs.isEmpty() && policy == POLICY_BLOCK) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (quit) return null;
+        Job job = freeJobs.poll();
+        if (job == null) return null;
+        if (job.data == null || job.data.length < size) job.data = new byte[size];
+        return job;
+    }
+
+    /**
+     * 提交prepare返回的任务，不会阻塞
+     */
+    void submit(Job job) {
+        synchronized (this) {
+            if (!quit) {
+                pendingJobs.offer(job);
+                notifyAll();
+                return;
+            }
+            freeJobs.offer(job);
+        }
+        listener.saved(job.timestamp, null);
+    }
+
+    /**
+     * 退出，已提交的截图会继续保存完
+     */
+    synchronized void quit() {
+        quit = true;
+        notifyAll();
+    }
+
+    private void loop() {
+        while (true) {
+            Job job;
+            synchronized (this) {
+                while (!quit && pendingJobs.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        quit = true;
+                    }
+                }
+                job = pendingJobs.poll();
+                if (job == null) return;//已退出且队列已清空
+            }
+            String path = null;
+            try {
+                path = encoder.save(job.data, job.width, job.height);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            long timestamp = job.timestamp;
+            synchronized (this) {
+                freeJobs.offer(job);
+                notifyAll();
+            }
+            try {
+                listener.saved(timestamp, path);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
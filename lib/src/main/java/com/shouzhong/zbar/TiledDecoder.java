@@ -0,0 +1,242 @@
+package com.shouzhong.zbar;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.os.SystemClock;
+
+import net.sourceforge.zbar.Symbol;
+import net.sourceforge.zbar.SymbolSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分块识别大图
+ * <p>
+ * 把灰度图切成相互重叠的块，多个线程共用同一份数据，各自用setCrop识别一块；
+ * 重叠部分应不小于条码的最大尺寸，这样每个条码都能完整地落在某一块中；
+ * 在重叠区域中被相邻的块重复识别到的条码会被合并（码格式、内容相同且位置重叠），
+ * 同一张图中不同位置的相同条码（如标签纸）会分别返回<br/>
+ * 小条码在整张大图中容易漏识别，分块后每块的扫描线更集中，也更省内存
+ */
+public class TiledDecoder {
+
+    private static final int MERGE_TOLERANCE = 8;//判断位置重叠时外接矩形向外扩展的像素
+
+    private Collection<BarcodeFormat> formats = BarcodeFormat.ALL_FORMATS;
+    private int tileSize = 1024;
+    private int overlap = 256;
+    private boolean stopOnFirstHit;
+    private final ExecutorService executor;
+
+    /**
+     * 线程数为CPU核数
+     */
+    public TiledDecoder() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism 线程数，小于1时按1处理
+     */
+    public TiledDecoder(int parallelism) {
+        final AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, parallelism), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            r.run();
+                        } finally {
+                            DecoderEngine.releaseCurrentThread();//线程退出时释放识别引擎
+                        }
+                    }
+                }, "TiledDecoder-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 设置支持的码格式，默认所有格式
+     */
+    public TiledDecoder setFormats(Collection<BarcodeFormat> formats) {
+        this.formats = formats == null ? BarcodeFormat.ALL_FORMATS : formats;
+        return this;
+    }
+
+    /**
+     * 设置块的边长和重叠的像素，默认1024和256<br/>
+     * 重叠部分应不小于条码的最大尺寸
+     */
+    public TiledDecoder setTileSize(int tileSize, int overlap) {
+        if (tileSize <= 0 || overlap < 0 || overlap >= tileSize) throw new IllegalArgumentException("需满足0 <= overlap < tileSize");
+        this.tileSize = tileSize;
+        this.overlap = overlap;
+        return this;
+    }
+
+    /**
+     * 设置是否识别到第一个条码就停止，默认false（识别所有块）<br/>
+     * 已经开始识别的块会继续完成
+     */
+    public TiledDecoder setStopOnFirstHit(boolean b) {
+        this.stopOnFirstHit = b;
+        return this;
+    }
+
+    /**
+     * 识别图片，建议在子线程运行，不会回收bmp
+     *
+     * @return 合并后的识别结果，位置为图片中的坐标；没有识别到条码时为空
+     */
+    public List<ScanResult> decode(Bitmap bmp) {
+        return decode(DecodeUtils.getLuma(bmp, null), bmp.getWidth(), bmp.getHeight());
+    }
+
+    /**
+     * 识别灰度图（Y800），建议在子线程运行
+     *
+     * @param data 亮度数据，长度需不小于宽*高，识别期间不能修改
+     * @return 合并后的识别结果，位置为图片中的坐标；没有识别到条码时为空
+     */
+    public List<ScanResult> decode(final byte[] data, final int width, final int height) {
+        final long timestamp = SystemClock.elapsedRealtime();
+        final AtomicBoolean found = new AtomicBoolean();
+        final boolean stop = stopOnFirstHit;
+        final Collection<BarcodeFormat> formats = this.formats;
+        int step = tileSize - overlap;
+        List<Future<List<ScanResult>>> futures = new ArrayList<>();
+        for (int top = 0; ; top += step) {
+            final int bottom = Math.min(top + tileSize, height);
+            for (int left = 0; ; left += step) {
+                final int right = Math.min(left + tileSize, width);
+                final int l = left, t = top;
+                futures.add(executor.submit(new Callable<List<ScanResult>>() {
+                    @Override
+                    public List<ScanResult> call() {
+                        if (stop && found.get()) return null;
+                        SymbolSet syms = DecoderEngine.get(formats, 3).scan(data, width, height, l, t, right - l, bottom - t);
+                        if (syms == null) return null;
+                        List<ScanResult> results = toResults(syms, timestamp);
+                        if (!results.isEmpty()) found.set(true);
+                        return results;
+                    }
+                }));
+                if (right == width) break;
+            }
+            if (bottom == height) break;
+        }
+        //合并重叠区域中的重复条码（内容相同且位置重叠），保留识别质量最高的
+        LinkedHashMap<String, List<ScanResult>> merged = new LinkedHashMap<>();
+        List<ScanResult> all = new ArrayList<>();
+        for (Future<List<ScanResult>> future : futures) {
+            if (stop && !merged.isEmpty()) {
+                future.cancel(false);
+                continue;
+            }
+            List<ScanResult> results;
+            try {
+                results = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                continue;
+            }
+            if (results == null) continue;
+            for (ScanResult result : results) {
+                String key = result.getFormat().getId() + ":" + result.getText();
+                List<ScanResult> same = merged.get(key);
+                if (same == null) {
+                    same = new ArrayList<>();
+                    merged.put(key, same);
+                }
+                merge(same, result);
+            }
+        }
+        for (List<ScanResult> same : merged.values()) {
+            all.addAll(same);
+        }
+        return all;
+    }
+
+    /**
+     * 与位置重叠的同一条码合并，保留识别质量高的；位置不重叠的视为另一个条码
+     *
+     * @param same 码格式和内容都相同的结果
+     */
+    private static void merge(List<ScanResult> same, ScanResult result) {
+        int[] bounds = getBounds(result);
+        for (int i = 0; i < same.size(); i++) {
+            ScanResult old = same.get(i);
+            if (!isOverlapped(bounds, getBounds(old))) continue;
+            if (old.getQuality() < result.getQuality()) same.set(i, result);
+            return;
+        }
+        same.add(result);
+    }
+
+    /**
+     * 位置的外接矩形 {left, top, right, bottom}，没有位置时返回null
+     */
+    private static int[] getBounds(ScanResult result) {
+        Point[] location = result.getLocation();
+        if (location == null || location.length == 0) return null;
+        int[] bounds = new int[] {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        for (Point p : location) {
+            bounds[0] = Math.min(bounds[0], p.x);
+            bounds[1] = Math.min(bounds[1], p.y);
+            bounds[2] = Math.max(bounds[2], p.x);
+            bounds[3] = Math.max(bounds[3], p.y);
+        }
+        return bounds;
+    }
+
+    /**
+     * 外接矩形（扩展MERGE_TOLERANCE后）是否相交；无法比较位置时视为同一个条码
+     */
+    private static boolean isOverlapped(int[] a, int[] b) {
+        if (a == null || b == null) return true;
+        return a[0] - MERGE_TOLERANCE <= b[2] && b[0] - MERGE_TOLERANCE <= a[2]
+                && a[1] - MERGE_TOLERANCE <= b[3] && b[1] - MERGE_TOLERANCE <= a[3];
+    }
+
+    /**
+     * 关闭线程池，之后不能再使用
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static List<ScanResult> toResults(SymbolSet syms, long timestamp) {
+        List<ScanResult> results = new ArrayList<>();
+        for (Symbol sym : syms) {
+            String s = DecoderEngine.getSymbolData(sym);
+            if (s == null) continue;
+            int[] b = sym.getBounds();
+            Point[] location = b == null ? new Point[0] : new Point[] {
+                    new Point(b[0], b[1]),
+                    new Point(b[0] + b[2], b[1]),
+                    new Point(b[0] + b[2], b[1] + b[3]),
+                    new Point(b[0], b[1] + b[3])
+            };
+            results.add(new ScanResult(sym.getDataBytes(), s, BarcodeFormat.getFormatById(sym.getType()), location, sym.getQuality(), sym.getOrientation(), timestamp, 0));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,119 @@
+package com.shouzhong.zbar;
+
+import android.graphics.Rect;
+import android.os.SystemClock;
+
+/**
+ * 根据亮度自动开关闪光灯
+ * <p>
+ * 在扫码区域中稀疏取样，统计BINS级的亮度直方图，取中位数作为画面亮度（不受高光的影响）；
+ * 亮度低于darkThreshold时打开闪光灯，高于brightThreshold时关闭，两个阈值之间保持不变（迟滞）；
+ * 条件需持续holdMillis才会切换，避免闪光灯在临界亮度附近来回闪烁<br/>
+ * 闪光灯点亮后画面亮度包含了闪光灯的贡献，直接与brightThreshold比较会立即关闭又在变暗后重新打开；
+ * 因此记下点亮前一刻的亮度，点亮稳定后测出闪光灯的贡献，之后用点亮时的亮度减去贡献（即环境亮度）判断是否关闭<br/>
+ * 直方图数组由调用者提供，不分配内存
+ */
+class TorchController {
+
+    static final int BINS = 32;
+    private static final int SAMPLES_PER_AXIS = 32;//每个方向最多取样的点数
+    private static final long SETTLE_MILLIS = 300;//闪光灯点亮后等待亮度和曝光稳定的时间
+
+    static final int KEEP = 0;
+    static final int TURN_ON = 1;
+    static final int TURN_OFF = 2;
+
+    private volatile int darkThreshold = 40;
+    private volatile int brightThreshold = 120;
+    private volatile long holdMillis = 1000;
+    private int pending = KEEP;//正在等待的切换
+    private long pendingSince;
+    private int offBrightness = -1;//闪光灯关闭时最近一帧的亮度，点亮后即为点亮前一刻的亮度
+    private long onSince;//观察到闪光灯点亮的时间，0表示未点亮
+    private int torchContribution = -1;//闪光灯对亮度的贡献，-1表示还未测出
+
+    /**
+     * @param darkThreshold 亮度（0~255）低于多少时打开
+     * @param brightThreshold 亮度高于多少时关闭，需大于darkThreshold
+     * @param holdMillis 条件持续多久才切换
+     */
+    void setParams(int darkThreshold, int brightThreshold, long holdMillis) {
+        if (brightThreshold <= darkThreshold) throw new IllegalArgumentException("brightThreshold需大于darkThreshold");
+        this.darkThreshold = darkThreshold;
+        this.brightThreshold = brightThreshold;
+        this.holdMillis = Math.max(0, holdMillis);
+    }
+
+    /**
+     * 根据这一帧的亮度决定是否切换闪光灯，运行于解码线程
+     *
+     * @param histogram 解码线程的直方图数组，长度BINS
+     * @param isOn 闪光灯当前是否点亮
+     * @return KEEP、TURN_ON或TURN_OFF
+     */
+    int evaluate(FrameDecoder.Frame frame, int[] histogram, boolean isOn) {
+        int brightness = getMedian(frame.data, frame.width, frame.rect, histogram);
+        if (brightness < 0) return KEEP;//扫码区域为空（例如扫码框还未布局），无法判断
+        long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            int wanted = KEEP;
+            if (!isOn) {
+                offBrightness = brightness;
+                onSince = 0;
+                torchContribution = -1;
+                if (brightness < darkThreshold) wanted = TURN_ON;
+            } else {
+                if (onSince == 0) onSince = now;
+                if (torchContribution < 0) {
+                    //点亮前的亮度未知（例如开启自动之前就已点亮）时无法得知环境亮度，保持点亮
+                    if (offBrightness < 0 || now - onSince < SETTLE_MILLIS) return KEEP;
+                    torchContribution = Math.max(0, brightness - offBrightness);
+                }
+                if (brightness - torchContribution > brightThreshold) wanted = TURN_OFF;
+            }
+            if (wanted != pending) {
+                pending = wanted;
+                pendingSince = now;
+            }
+            if (pending == KEEP || now - pendingSince < holdMillis) return KEEP;
+            pending = KEEP;
+            return wanted;
+        }
+    }
+
+    synchronized void reset() {
+        pending = KEEP;
+        offBrightness = -1;
+        onSince = 0;
+        torchContribution = -1;
+    }
+
+    /**
+     * 亮度的中位数（按直方图的分级，取所在级的中间值）
+     *
+     * @return 区域内没有取样点时返回-1
+     */
+    static int getMedian(byte[] data, int width, Rect rect, int[] histogram) {
+        for (int i = 0; i < BINS; i++) {
+            histogram[i] = 0;
+        }
+        int stepX = Math.max(1, rect.width() / SAMPLES_PER_AXIS);
+        int stepY = Math.max(1, rect.height() / SAMPLES_PER_AXIS);
+        int shift = 8 - Integer.numberOfTrailingZeros(BINS);//256级映射到BINS级
+        int count = 0;
+        for (int y = rect.top + stepY / 2; y < rect.bottom; y += stepY) {
+            int row = y * width;
+            for (int x = rect.left + stepX / 2; x < rect.right; x += stepX) {
+                histogram[(data[row + x] & 0xFF) >> shift]++;
+                count++;
+            }
+        }
+        if (count == 0) return -1;
+        int half = (count + 1) / 2, sum = 0;
+        for (int i = 0; i < BINS; i++) {
+            sum += histogram[i];
+            if (sum >= half) return (i << shift) + (1 << shift) / 2;
+        }
+        return 0;
+    }
+}
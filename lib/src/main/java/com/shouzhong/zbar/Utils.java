@@ -1,68 +1,159 @@
 package com.shouzhong.zbar;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 
 class Utils {
 
     /**
-     *  nv21转bitmap
+     * 把区域调整为偶数对齐（NV21的色度是2x2采样的）
      *
-     * @param nv21
-     * @param width
-     * @param height
-     * @return
+     * @param rect
      */
-    static final Bitmap nv21ToBitmap(byte[] nv21, int width, int height){
-        Bitmap bitmap = null;
-        try {
-            YuvImage image = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            image.compressToJpeg(new Rect(0, 0, width, height), 80, stream);
-            bitmap = BitmapFactory.decodeByteArray(stream.toByteArray(), 0, stream.size());
-            stream.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+    static void alignNv21(Rect rect) {
+        rect.left &= ~1;
+        rect.top &= ~1;
+        rect.right = rect.left + (rect.width() & ~1);
+        rect.bottom = rect.top + (rect.height() & ~1);
+    }
+
+    /**
+     * 截取nv21图像的一部分，并顺时针旋转rotationCount*90度，不经过bitmap
+     *
+     * @param src 原图
+     * @param width 原图宽度
+     * @param height 原图高度
+     * @param rect 截取区域，需偶数对齐，见alignNv21
+     * @param rotationCount 顺时针旋转几次（每次90度）
+     * @param out 输出，长度需不小于rect.width()*rect.height()*3/2；旋转90或270度时宽高互换
+     */
+    static void cropNv21(byte[] src, int width, int height, Rect rect, int rotationCount, byte[] out) {
+        int w = rect.width();
+        int h = rect.height();
+        //亮度
+        rotatePlane(src, rect.top * width + rect.left, width, w, h, 1, rotationCount, out, 0);
+        //色度，VU交错，按2字节一组旋转
+        rotatePlane(src, width * height + (rect.top / 2) * width + rect.left, width, w / 2, h / 2, 2, rotationCount, out, w * h);
+    }
+
+    /**
+     * 旋转一个平面，每行按固定步长写入，便于JIT优化
+     *
+     * @param pixelSize 每个像素的字节数
+     */
+    private static void rotatePlane(byte[] src, int srcOffset, int srcStride, int w, int h, int pixelSize, int rotationCount, byte[] out, int outOffset) {
+        int dstStride = (rotationCount % 2 == 0 ? w : h) * pixelSize;//旋转后一行的字节数
+        for (int y = 0; y < h; y++) {
+            int s = srcOffset + y * srcStride;
+            int d, step;
+            switch (rotationCount) {
+                case 1://(x, y) -> (h-1-y, x)
+                    d = outOffset + (h - 1 - y) * pixelSize;
+                    step = dstStride;
+                    break;
+                case 2://(x, y) -> (w-1-x, h-1-y)
+                    d = outOffset + (h - 1 - y) * dstStride + (w - 1) * pixelSize;
+                    step = -pixelSize;
+                    break;
+                case 3://(x, y) -> (y, w-1-x)
+                    d = outOffset + (w - 1) * dstStride + y * pixelSize;
+                    step = -dstStride;
+                    break;
+                default:
+                    System.arraycopy(src, s, out, outOffset + y * dstStride, w * pixelSize);
+                    continue;
+            }
+            if (pixelSize == 1) {
+                for (int x = 0; x < w; x++, d += step) {
+                    out[d] = src[s + x];
+                }
+            } else {
+                for (int x = 0; x < w * 2; x += 2, d += step) {
+                    out[d] = src[s + x];
+                    out[d + 1] = src[s + x + 1];
+                }
+            }
+        }
+    }
+
+    /**
+     * 区域旋转45度后外接正方形的边长
+     */
+    static int getRotated45Size(int width, int height) {
+        return (int) ((width + height) * 0.70711f) + 2;
+    }
+
+    /**
+     * 把灰度图（或nv21的亮度）中的一个区域绕其中心旋转45度（最近邻采样），写入边长为size的正方形<br/>
+     * 输出坐标(u, v)对应原图 x = cx + (u - size/2 - v + size/2)·cos45，y = cy + (u - size/2 + v - size/2)·cos45，
+     * 内层循环只有定点数加法，区域外填白色（相当于条码的静区）
+     *
+     * @param src 原图
+     * @param srcWidth 原图宽度
+     * @param rect 旋转的区域
+     * @param out 输出，长度需不小于size*size
+     * @param size 输出的边长，见getRotated45Size
+     */
+    static void rotateLuma45(byte[] src, int srcWidth, Rect rect, byte[] out, int size) {
+        final int c = 46341;//cos45，16位定点数
+        final int left = rect.left, top = rect.top, right = rect.right, bottom = rect.bottom;
+        final int half = size / 2;
+        final int cx = (left + right) << 15;//区域中心，16位定点数
+        final int cy = (top + bottom) << 15;
+        final byte white = (byte) 0xFF;
+        for (int v = 0; v < size; v++) {
+            int x = cx - c * half - c * (v - half);
+            int y = cy - c * half + c * (v - half);
+            int o = v * size;
+            for (int u = 0; u < size; u++, x += c, y += c) {
+                int sx = x >> 16, sy = y >> 16;
+                out[o + u] = sx >= left && sx < right && sy >= top && sy < bottom ? src[sy * srcWidth + sx] : white;
+            }
         }
-        return bitmap;
     }
 
     /**
-     * 保存图片
+     * 把nv21图像编码成jpg并保存到截图目录（见SnapshotStore）
      *
      * @param context
-     * @param bitmap
+     * @param nv21
+     * @param width
+     * @param height
+     * @return 图片路径，失败返回null
      */
-    static final String saveBitmap(final Context context, Bitmap bitmap) {
+    static final String saveNv21(final Context context, byte[] nv21, int width, int height) {
+        SnapshotStore store = SnapshotStore.get(context);
+        File file = null;
+        FileOutputStream fos = null;
+        boolean success = false;
         try {
-            final String local = context.getExternalCacheDir().getAbsolutePath() + "/img_" + System.currentTimeMillis() + ".jpg";;
-            final File file = new File(local);
-            if (!file.exists()) {
-                file.getParentFile().mkdirs();
-            }
-            if (file.exists()) {
-                file.delete();
-            }
-            file.createNewFile();
-            FileOutputStream fos = new FileOutputStream(file);
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, fos);
+            file = store.newFile();
+            fos = new FileOutputStream(file);
+            YuvImage image = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+            if (!image.compressToJpeg(new Rect(0, 0, width, height), 100, fos)) return null;
             fos.flush();
-            fos.close();
-            if (null != bitmap) {
-                bitmap.recycle();
-            }
-            return local;
+            success = true;
         } catch (Exception e) {
             return null;
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (Exception e) {
+                    success = false;
+                }
+            }
+            if (file != null) {
+                if (success) store.add(file);
+                else store.discard(file);
+            }
         }
+        return success ? file.getAbsolutePath() : null;
     }
 
 }
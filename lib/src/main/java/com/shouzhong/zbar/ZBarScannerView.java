@@ -2,8 +2,6 @@ package com.shouzhong.zbar;
 
 import android.content.Context;
 import android.content.res.Configuration;
-import android.graphics.Bitmap;
-import android.graphics.Matrix;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
@@ -23,6 +21,7 @@ import net.sourceforge.zbar.SymbolSet;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 
@@ -31,7 +30,7 @@ import java.util.List;
  *
  *
  */
-public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallback, CameraPreview.FocusAreaSetter {
+public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallback, CameraPreview.FocusAreaSetter, FrameDecoder.FrameHandler {
 
     public static final String TAG = "ZBarScannerView";
 
@@ -46,15 +45,64 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
     private CameraWrapper cameraWrapper;
     private IViewFinder viewFinderView;
     private CameraPreview cameraPreview;
-    private Rect scaledRect;
+    private volatile Rect scaledRect;
+    private Rect lastScaledRect;//上一次计算出的扫码区域
     private ArrayList<Camera.Area> focusAreas;
     private CameraHandlerThread cameraHandlerThread;
     private boolean shouldAdjustFocusArea;//是否需要自动调整对焦区域
-    private ImageScanner imageScanner;
     private List<BarcodeFormat> formats;
+    private volatile int scannerVersion;//码格式等配置变更后，各解码线程据此重建ImageScanner
+    private volatile int cacheVersion;//变更后，各解码线程重置zbar的帧间缓存
+    private int decodeThreadCount = 1;
+    private volatile boolean isVideoMode;//视频模式，开启zbar的帧间缓存
+    private boolean isResetCacheOnWindowChange = true;
+    private volatile boolean isContinuous;//连续扫码模式，识别成功后不暂停
+    private final DuplicateFilter duplicateFilter = new DuplicateFilter(2000, 64);
+    private volatile boolean isRoiTracking;//是否跟踪上次识别到的位置
+    private final RoiTracker roiTracker = new RoiTracker(5, 0.5f);
+    private volatile int[] decodeLevels = new int[] {3};//各级扫描线间隔
+    private static final long MOTION_RETRY_DELAY = 100;//晃动期间跳过一帧后，一次性回调模式下多久再要下一帧（毫秒）
+    private final Runnable requestNextFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            requestNextFrame();
+        }
+    };
+    private volatile boolean isMotionGating;//是否在手机晃动时跳过帧
+    private final MotionGate motionGate = new MotionGate();
+    private volatile boolean isBlurFiltering;//是否跳过模糊的帧
+    private final SharpnessFilter sharpnessFilter = new SharpnessFilter(new Runnable() {
+        @Override
+        public void run() {
+            //连续模糊多帧，切换到主线程对焦
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (cameraPreview != null) cameraPreview.autoFocus();
+                }
+            });
+        }
+    });
+    private volatile boolean isStaticSceneSkipping;//画面静止且上次识别失败时是否跳过
+    private final SceneDetector sceneDetector = new SceneDetector();
+    private volatile boolean isAdaptiveFrameRate;//是否根据识别耗时调整取帧的频率
+    private final FrameScheduler frameScheduler = new FrameScheduler();
+    private volatile boolean isAutoTorch;//是否根据亮度自动开关闪光灯
+    private final TorchController torchController = new TorchController();
+    private volatile int rotatedRetryMisses;//连续失败多少帧后开始旋转重试，0为关闭
+    private volatile int rotatedRetryInterval = 1;//开始重试后每几帧重试一次
     private Callback callback;
+    private ScanResultCallback resultCallback;
+    private volatile SnapshotCallback snapshotCallback;
+    private SnapshotWriter snapshotWriter;//异步保存截图的线程
+    private int snapshotQueueSize = 2;
+    private boolean isSnapshotQueueBlocking;
     private int[] previewSize;
     private boolean isSaveBmp;
+    private boolean isPreviewBuffered;//是否使用带缓冲区的预览回调
+    private PreviewBufferPool previewBufferPool;
+    private FrameDecoder frameDecoder;//解码线程
+    private volatile boolean isPaused;//识别成功后暂停识别，等待restartPreviewAfterDelay
 
     public ZBarScannerView(Context context) {
         this(context, null);
@@ -66,82 +114,418 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
 
     public ZBarScannerView(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
-        //创建ImageScanner（zbar扫码器）并进行基本设置（如支持的码格式）
-        setupScanner();
     }
 
     /**
      * Called as preview frames are displayed.<br/>
      * This callback is invoked on the event thread open(int) was called from.<br/>
-     * (此方法与Camera.open运行于同一线程，在本项目中，就是CameraHandlerThread线程)
+     * (此方法与Camera.open运行于同一线程，在本项目中，就是CameraHandlerThread线程)<br/>
+     * 这里只把帧交给解码线程，不等待识别结果
      */
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
-        if (callback == null) return;
+        FrameDecoder decoder = frameDecoder;
+        CameraWrapper wrapper = cameraWrapper;
+        //暂停期间（识别成功后）到达的帧不做识别，缓冲模式下扣下缓冲区
+        if ((callback == null && resultCallback == null) || decoder == null || wrapper == null || isPaused) {
+            recycleFrame(data);
+            return;
+        }
         try {
-            Camera.Parameters parameters = camera.getParameters();
-            int previewWidth = parameters.getPreviewSize().width;
-            int previewHeight = parameters.getPreviewSize().height;
-            //根据ViewFinderView和preview的尺寸之比，缩放扫码区域
-            Rect rect = getScaledRect(previewWidth, previewHeight);
-            //从preView的图像中截取扫码区域
-            Image barcode = new Image(previewWidth, previewHeight, "Y800");
-            barcode.setData(data);
-            barcode.setCrop(rect.left, rect.top, rect.width(), rect.height());
-
-            //使用zbar库识别扫码区域
-            int result = imageScanner.scanImage(barcode);
-            // 识别失败
-            if (result == 0) {
-                //再获取一帧图像数据进行识别（会再次触发onPreviewFrame方法）
-                getOneMoreFrame();
+            //晃动期间的帧大多是模糊的，跳过
+            if (isMotionGating && !motionGate.accept()) {
+                recycleFrame(data);
+                requestNextFrameDelayed(MOTION_RETRY_DELAY);
                 return;
             }
-            // 识别成功
-            SymbolSet syms = imageScanner.getResults();
-            for (Symbol sym : syms) {
-                final String s = android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT ? new String(sym.getDataBytes(), StandardCharsets.UTF_8) : sym.getData();
-                if (s != null) {
-                    String str = null;
-                    if (isSaveBmp) {
-                        //相机图像需要被顺时针旋转几次（每次90度）
-                        int  rotationCount = getRotationCount();
-                        Bitmap bmp = Utils.nv21ToBitmap(data, previewWidth, previewHeight);
-                        bmp= Bitmap.createBitmap(bmp, rect.left, rect.top, rect.width(), rect.height());
-                        if (rotationCount != 0) {
-                            Matrix m = new Matrix();
-                            m.setRotate(rotationCount * 90, (float) bmp.getWidth() / 2, (float) bmp.getHeight() / 2);
-                            bmp = Bitmap.createBitmap(bmp, 0, 0, bmp.getWidth(), bmp.getHeight(), m, true);
-                        }
-                        str = Utils.saveBitmap(getContext(), bmp);
-                        if (TextUtils.isEmpty(str)) {
-                            getOneMoreFrame();
-                            return;
-                        }
-                    }
-                    final String path = str;
-                    post(new Runnable() {//切换到主线程
-                        @Override
-                        public void run() {
-                            if (callback != null) callback.result(s, path);
-                        }
-                    });
+            //按识别耗时限制取帧的频率
+            if (isAdaptiveFrameRate) {
+                int threadCount = getActualDecodeThreadCount();
+                frameScheduler.adjustFpsRange(wrapper, threadCount);
+                if (!frameScheduler.accept(threadCount)) {
+                    recycleFrame(data);
+                    requestNextFrameDelayed(frameScheduler.getWaitMillis(threadCount));
                     return;
                 }
             }
-            //再获取一帧图像数据进行识别（会再次触发onPreviewFrame方法）
-            getOneMoreFrame();
+            //预览尺寸取自缓存，不再每帧调用getParameters
+            int previewWidth = wrapper.getPreviewWidth();
+            int previewHeight = wrapper.getPreviewHeight();
+            //根据ViewFinderView和preview的尺寸之比，缩放扫码区域
+            Rect rect = getScaledRect(previewWidth, previewHeight);
+            //交给解码线程，若上一帧还未开始解码则被丢弃
+            //缓冲模式下相机会自动使用下一个缓冲区；一次性回调模式下等解码线程取走这一帧（frameTaken）后再要下一帧，
+            //否则相机每帧都会分配新的数组，大部分又被丢弃
+            decoder.offer(data, previewWidth, previewHeight, rect, getRotationCount());
         } catch (RuntimeException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * 识别一帧，运行于解码线程
+     */
+    @Override
+    public void decodeFrame(FrameDecoder.Frame frame, FrameDecoder.Worker worker) {
+        if (!isAdaptiveFrameRate) {
+            scanFrame(frame, worker);
+            return;
+        }
+        //只统计交给zbar识别的帧的耗时，据此调整取帧的频率；
+        //被过滤、跳过的帧几乎不耗时，计入会拉低平均耗时，使取帧过快
+        long start = System.nanoTime();
+        if (scanFrame(frame, worker)) frameScheduler.onDecoded(System.nanoTime() - start);
+    }
+
+    /**
+     * @return 是否交给了zbar识别（被过滤、跳过的帧返回false）
+     */
+    private boolean scanFrame(FrameDecoder.Frame frame, FrameDecoder.Worker worker) {
+        byte[] data = frame.data;
+        if (isPaused || (callback == null && resultCallback == null)) {
+            recycleFrame(data);
+            return false;
+        }
+        //根据扫码区域的亮度自动开关闪光灯
+        if (isAutoTorch) updateTorch(frame, worker);
+        //每个解码线程使用自己的ImageScanner（zbar扫码器）
+        ImageScanner imageScanner = obtainScanner(worker);
+        //跟踪上次识别到的位置，只识别其附近的区域
+        if (isRoiTracking) roiTracker.getCrop(frame.rect, frame.crop);
+        //模糊的帧不交给zbar
+        if (isBlurFiltering && !sharpnessFilter.accept(frame)) {
+            recycleFrame(data);
+            return false;
+        }
+        //画面与上次识别失败时相比没有变化，不再识别
+        boolean isSceneChecked = isStaticSceneSkipping;
+        if (isSceneChecked && !sceneDetector.accept(frame, worker.fingerprint)) {
+            recycleFrame(data);
+            return false;
+        }
+        //从preView的图像中截取扫码区域（复用解码线程的zbar图像）
+        Image barcode = worker.bindImage(frame);
+
+        //使用zbar库识别扫码区域，由稀到密逐级尝试，识别失败或只得到PARTIAL时才用下一级
+        int[] levels = decodeLevels;
+        int level = isVideoMode ? levels.length - 1 : 0;//视频模式下同一帧只能识别一次，否则会干扰帧间缓存
+        int result = 0;
+        try {
+            for (; level < levels.length; level++) {
+                if (worker.density != levels[level]) {
+                    imageScanner.setConfig(0, Config.X_DENSITY, levels[level]);
+                    imageScanner.setConfig(0, Config.Y_DENSITY, levels[level]);
+                    worker.density = levels[level];
+                }
+                result = imageScanner.scanImage(barcode);
+                if (result > 0 && !isPartial(imageScanner.getResults())) break;
+            }
+        } finally {
+            worker.unbindImage();
+        }
+        if (level == levels.length) level--;
+        SymbolSet syms;
+        int rotatedSize = 0;
+        if (result == 0) {
+            // 识别失败，连续失败多次后尝试旋转45度再识别
+            if (isRoiTracking) roiTracker.onMiss();
+            boolean isRetried = isRotatedRetryDue(worker);
+            syms = isRetried ? scanRotated(frame, worker, imageScanner) : null;
+            if (syms == null) {
+                //开启旋转重试时，只有旋转识别过仍失败的画面才记为失败的静止画面，
+                //否则静止的倾斜条码在重试之前就被跳过，要等强制识别时才能轮到重试
+                if (isSceneChecked && (isRetried || !isRotatedRetryEnabled())) sceneDetector.onMiss(frame, worker.fingerprint);
+                recycleFrame(data);
+                return true;
+            }
+            rotatedSize = worker.rotatedSize;
+        } else {
+            // 识别成功
+            worker.misses = 0;
+            syms = imageScanner.getResults();
+            if (isRoiTracking) roiTracker.onHit(syms);
+        }
+        if (isSceneChecked) sceneDetector.clear();
+        ArrayList<ScanResult> results = collectResults(frame, syms, level, rotatedSize);
+        if (results.isEmpty()) {
+            recycleFrame(data);
+            return true;
+        }
+        boolean isSaveAsync = isSaveBmp && snapshotCallback != null;
+        String path = null;
+        if (isSaveBmp && !isSaveAsync) {
+            path = saveSnapshot(frame, worker);
+            //连续扫码模式下保存失败也返回结果，否则再识别一帧
+            if (TextUtils.isEmpty(path) && !isContinuous) {
+                recycleFrame(data);
+                return true;
+            }
+        }
+        //识别成功，暂停取帧，等待restartPreviewAfterDelay；其他线程的结果会被丢弃
+        if (!isContinuous && !pause(data)) return true;
+        //异步保存时需在返回结果之前复制截图：返回结果后随时可能恢复预览，缓冲区会被相机覆盖
+        SnapshotWriter writer = isSaveAsync ? obtainSnapshotWriter() : null;
+        SnapshotWriter.Job snapshot = writer == null ? null : writer.prepare(frame);
+        //先返回结果，路径稍后通过SnapshotCallback返回
+        postResults(results, path);
+        if (isSaveAsync) submitSnapshot(writer, snapshot, frame.timestamp);
+        if (isContinuous) recycleFrame(data);
+        return true;
+    }
+
+    /**
+     * 自动开关闪光灯，闪光灯的支持情况和当前状态都取自CameraWrapper的缓存，不会每帧调用getParameters
+     */
+    private void updateTorch(FrameDecoder.Frame frame, FrameDecoder.Worker worker) {
+        CameraWrapper wrapper = cameraWrapper;
+        if (wrapper == null || !wrapper.isFlashSupported()) return;
+        boolean isOn = TextUtils.equals(wrapper.getFlashMode(), Camera.Parameters.FLASH_MODE_TORCH);
+        final int action = torchController.evaluate(frame, worker.histogram, isOn);
+        if (action == TorchController.KEEP) return;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (isAutoTorch) setFlash(action == TorchController.TURN_ON);
+            }
+        });
+    }
+
+    /**
+     * 旋转重试：zbar的扫描线是水平和竖直的，与扫描线成45度左右的一维码很难被识别，
+     * 连续失败rotatedRetryMisses帧后，每rotatedRetryInterval帧把识别区域旋转45度再识别一次<br/>
+     * 只在识别失败的帧上进行，不影响能正常识别的帧的耗时
+     */
+    private boolean isRotatedRetryEnabled() {
+        //视频模式下重试会干扰帧间缓存
+        return rotatedRetryMisses > 0 && !isVideoMode;
+    }
+
+    /**
+     * 记录一次识别失败，并判断本帧是否轮到旋转重试
+     */
+    private boolean isRotatedRetryDue(FrameDecoder.Worker worker) {
+        int misses = ++worker.misses;
+        int after = rotatedRetryMisses;
+        return isRotatedRetryEnabled() && misses >= after && (misses - after) % rotatedRetryInterval == 0;
+    }
+
+    /**
+     * 把识别区域旋转45度再识别一次
+     *
+     * @return 识别结果，失败时返回null
+     */
+    private SymbolSet scanRotated(FrameDecoder.Frame frame, FrameDecoder.Worker worker, ImageScanner imageScanner) {
+        Image rotated = worker.bindRotatedImage(frame);
+        if (imageScanner.scanImage(rotated) == 0) return null;
+        SymbolSet syms = imageScanner.getResults();
+        return isPartial(syms) ? null : syms;
+    }
+
+    /**
+     * 从zbar的识别结果中挑出需要返回的条码
+     *
+     * @param rotatedSize 旋转重试的结果为旋转后的边长，否则为0
+     */
+    private ArrayList<ScanResult> collectResults(FrameDecoder.Frame frame, SymbolSet syms, int level, int rotatedSize) {
+        ArrayList<ScanResult> results = new ArrayList<>();
+        for (Symbol sym : syms) {
+            //视频模式下只返回zbar确认过的新条码（小于0为未确认，大于0为重复）
+            if (isVideoMode && sym.getCount() != 0) continue;
+            byte[] bytes = sym.getDataBytes();
+            String s = getSymbolData(sym, bytes);
+            if (s == null) continue;
+            //连续扫码模式下过滤掉去重窗口内的重复条码
+            if (isContinuous && !duplicateFilter.accept(sym.getType(), s, frame.timestamp)) continue;
+            results.add(new ScanResult(bytes, s, BarcodeFormat.getFormatById(sym.getType()), getLocation(frame, sym, rotatedSize), sym.getQuality(), sym.getOrientation(), frame.timestamp, level));
+            //普通模式下只需要返回一个结果时，不再继续
+            if (!isContinuous && resultCallback == null) break;
+        }
+        return results;
+    }
+
+    /**
+     * 识别结果是否都是不完整的条码
+     */
+    private boolean isPartial(SymbolSet syms) {
+        for (Symbol sym : syms) {
+            if (sym.getType() != Symbol.PARTIAL) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 把条码在预览图像中的位置映射到ZBarScannerView的坐标系<br/>
+     * zbar.jar只公开了外接矩形（getBounds），这里返回矩形的四个顶点
+     *
+     * @param rotatedSize 旋转重试的结果为旋转后的边长，否则为0
+     */
+    private Point[] getLocation(FrameDecoder.Frame frame, Symbol sym, int rotatedSize) {
+        int[] bounds = sym.getBounds();
+        if (bounds == null) return new Point[0];
+        int[] ratio = getScaleRatio(frame.width, frame.height);
+        Point[] points = new Point[] {
+                new Point(bounds[0], bounds[1]),
+                new Point(bounds[0] + bounds[2], bounds[1]),
+                new Point(bounds[0] + bounds[2], bounds[1] + bounds[3]),
+                new Point(bounds[0], bounds[1] + bounds[3])
+        };
+        if (rotatedSize > 0) {
+            //旋转重试的坐标先逆变换回预览图像（见Utils.rotateLuma45）
+            float c = 0.70711f, half = rotatedSize / 2;
+            float cx = frame.crop.exactCenterX(), cy = frame.crop.exactCenterY();
+            for (Point point : points) {
+                float du = point.x - half, dv = point.y - half;
+                point.set((int) (cx + c * (du - dv)), (int) (cy + c * (du + dv)));
+            }
+        }
+        for (Point point : points) {
+            //按相机图像的旋转角度顺时针旋转，再缩放到控件尺寸
+            int x = point.x, y = point.y;
+            if (frame.rotationCount == 1) {
+                x = frame.height - point.y;
+                y = point.x;
+            } else if (frame.rotationCount == 2) {
+                x = frame.width - point.x;
+                y = frame.height - point.y;
+            } else if (frame.rotationCount == 3) {
+                x = point.y;
+                y = frame.width - point.x;
+            }
+            point.x = x * ratio[1] / ratio[0];
+            point.y = y * ratio[1] / ratio[0];
+        }
+        return points;
+    }
+
+    /**
+     * 获取条码内容
+     */
+    private String getSymbolData(Symbol sym, byte[] bytes) {
+        return android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT ? new String(bytes, StandardCharsets.UTF_8) : sym.getData();
+    }
+
+    /**
+     * 截取扫码区域并保存图片
+     *
+     * @return 图片路径，失败返回null
+     */
+    private String saveSnapshot(FrameDecoder.Frame frame, FrameDecoder.Worker worker) {
+        //直接从nv21中截取扫码区域并旋转，只编码一次jpg
+        Rect rect = worker.snapshotRect;
+        rect.set(frame.rect);
+        Utils.alignNv21(rect);
+        if (rect.isEmpty()) return null;
+        int size = rect.width() * rect.height() * 3 / 2;
+        if (worker.snapshotBuffer == null || worker.snapshotBuffer.length < size) worker.snapshotBuffer = new byte[size];
+        //相机图像需要被顺时针旋转几次（每次90度）
+        int rotationCount = frame.rotationCount;
+        Utils.cropNv21(frame.data, frame.width, frame.height, rect, rotationCount, worker.snapshotBuffer);
+        boolean swap = rotationCount % 2 == 1;
+        return Utils.saveNv21(getContext(), worker.snapshotBuffer, swap ? rect.height() : rect.width(), swap ? rect.width() : rect.height());
+    }
+
+    /**
+     * 把已复制好的截图交给写文件的线程保存，不等待写完
+     *
+     * @param snapshot SnapshotWriter.prepare的返回值，为null时（队列已满被丢弃，或已停止扫描）直接回调null路径
+     */
+    private void submitSnapshot(SnapshotWriter writer, SnapshotWriter.Job snapshot, long timestamp) {
+        if (writer == null || snapshot == null) {
+            postSnapshot(timestamp, null);
+            return;
+        }
+        writer.submit(snapshot);
+    }
+
+    /**
+     * @return 已停止扫描时返回null
+     */
+    private synchronized SnapshotWriter obtainSnapshotWriter() {
+        if (snapshotWriter == null && frameDecoder != null) {
+            final Context context = getContext().getApplicationContext();
+            SnapshotWriter.Encoder encoder = new SnapshotWriter.Encoder() {
+                @Override
+                public String save(byte[] nv21, int width, int height) {
+                    return Utils.saveNv21(context, nv21, width, height);
+                }
+            };
+            snapshotWriter = new SnapshotWriter(encoder, snapshotQueueSize, isSnapshotQueueBlocking ? SnapshotWriter.POLICY_BLOCK : SnapshotWriter.POLICY_DROP, new SnapshotWriter.Listener() {
+                @Override
+                public void saved(long timestamp, String path) {
+                    postSnapshot(timestamp, path);
+                }
+            });
+        }
+        return snapshotWriter;
+    }
+
+    /**
+     * 切换到主线程返回异步保存的截图路径
+     */
+    private void postSnapshot(final long timestamp, final String path) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (snapshotCallback != null) snapshotCallback.saved(timestamp, path);
+            }
+        });
+    }
+
+    /**
+     * 切换到主线程返回结果<br/>
+     * Callback每个条码回调一次（普通模式下只回调第一个），ScanResultCallback整批回调一次
+     */
+    private void postResults(final List<ScanResult> results, final String path) {
+        final List<ScanResult> list = Collections.unmodifiableList(results);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (callback != null) {
+                    for (ScanResult result : list) {
+                        callback.result(result.getText(), path);
+                        if (!isContinuous) break;
+                    }
+                }
+                if (resultCallback != null) resultCallback.result(list, path);
+            }
+        });
+    }
+
+    @Override
+    public void dropFrame(FrameDecoder.Frame frame) {
+        recycleFrame(frame.data);
+    }
+
+    @Override
+    public void frameTaken() {
+        requestNextFrame();
+    }
+
+    /**
+     * 一次性回调模式下再要一帧；缓冲模式下相机会持续回调，不需要
+     */
+    private void requestNextFrame() {
+        CameraWrapper wrapper = cameraWrapper;
+        if (previewBufferPool != null || wrapper == null || isPaused) return;
+        try {
+            wrapper.camera.setOneShotPreviewCallback(this);
+        } catch (Exception e) {}
+    }
+
+    /**
+     * 一次性回调模式下，跳过的帧过一段时间后再要下一帧，避免相机为马上又要跳过的帧分配数组
+     */
+    private void requestNextFrameDelayed(long delayMillis) {
+        if (previewBufferPool != null) return;
+        removeCallbacks(requestNextFrameRunnable);
+        postDelayed(requestNextFrameRunnable, delayMillis);
+    }
+
     @Override
     public void setAutoFocusArea() {
         //设置对焦区域
         if (!shouldAdjustFocusArea || cameraWrapper == null) return;
-        Camera.Parameters parameters = cameraWrapper.camera.getParameters();
-        if (parameters.getMaxNumFocusAreas() <= 0) {
+        if (cameraWrapper.getMaxNumFocusAreas() <= 0) {
             Log.e(TAG, "不支持设置对焦区域");
             return;
         }
@@ -182,8 +566,11 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
             focusAreas = new ArrayList<>();
             focusAreas.add(area);
         }
-        parameters.setFocusAreas(focusAreas);
-        cameraWrapper.camera.setParameters(parameters);
+        synchronized (cameraWrapper) {
+            Camera.Parameters parameters = cameraWrapper.getParameters();
+            parameters.setFocusAreas(focusAreas);
+            cameraWrapper.setParameters(parameters);
+        }
     }
 
     // ******************************************************************************
@@ -199,6 +586,16 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
         this.callback = callback;
     }
 
+    /**
+     * 回调，整批返回同一帧中的识别结果，包含码格式、位置、识别质量等信息<br/>
+     * 可与setCallback同时使用
+     *
+     * @param callback
+     */
+    public void setScanResultCallback(ScanResultCallback callback) {
+        this.resultCallback = callback;
+    }
+
     /**
      * 扫描区域
      *
@@ -230,7 +627,7 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
      */
     public void setFormats(List<BarcodeFormat> formats) {
         this.formats = formats;
-        setupScanner();
+        scannerVersion++;
     }
 
     public Collection<BarcodeFormat> getFormats() {
@@ -253,37 +650,54 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
      * 开启/关闭闪光灯
      */
     public void setFlash(boolean flag) {
-        if (cameraWrapper == null || !CameraUtils.isFlashSupported(cameraWrapper.camera)) return;
-        Camera.Parameters parameters = cameraWrapper.camera.getParameters();
-        if (TextUtils.equals(parameters.getFlashMode(), Camera.Parameters.FLASH_MODE_TORCH) && flag)
-            return;
-        if (TextUtils.equals(parameters.getFlashMode(), Camera.Parameters.FLASH_MODE_OFF) && !flag)
-            return;
-        parameters.setFlashMode(flag ? Camera.Parameters.FLASH_MODE_TORCH : Camera.Parameters.FLASH_MODE_OFF);
-        cameraWrapper.camera.setParameters(parameters);
+        if (cameraWrapper == null || !cameraWrapper.isFlashSupported()) return;
+        cameraWrapper.setFlashMode(flag ? Camera.Parameters.FLASH_MODE_TORCH : Camera.Parameters.FLASH_MODE_OFF);
     }
 
     /**
      * 切换闪光灯的点亮状态
      */
     public void toggleFlash() {
-        if (cameraWrapper == null || !CameraUtils.isFlashSupported(cameraWrapper.camera)) return;
-        Camera.Parameters parameters = cameraWrapper.camera.getParameters();
-        if (TextUtils.equals(parameters.getFlashMode(), Camera.Parameters.FLASH_MODE_TORCH)) {
-            parameters.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
-        } else {
-            parameters.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
+        if (cameraWrapper == null || !cameraWrapper.isFlashSupported()) return;
+        synchronized (cameraWrapper) {
+            if (TextUtils.equals(cameraWrapper.getFlashMode(), Camera.Parameters.FLASH_MODE_TORCH)) {
+                cameraWrapper.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
+            } else {
+                cameraWrapper.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
+            }
         }
-        cameraWrapper.camera.setParameters(parameters);
     }
 
     /**
      * 闪光灯是否被点亮
      */
     public boolean isFlashOn() {
-        if (cameraWrapper == null || !CameraUtils.isFlashSupported(cameraWrapper.camera)) return false;
-        Camera.Parameters parameters = cameraWrapper.camera.getParameters();
-        return TextUtils.equals(parameters.getFlashMode(), Camera.Parameters.FLASH_MODE_TORCH);
+        if (cameraWrapper == null || !cameraWrapper.isFlashSupported()) return false;
+        return TextUtils.equals(cameraWrapper.getFlashMode(), Camera.Parameters.FLASH_MODE_TORCH);
+    }
+
+    /**
+     * 设置是否根据亮度自动开关闪光灯，默认false<br/>
+     * 开启后在解码线程中统计扫码区域的亮度直方图，画面持续偏暗时打开闪光灯，环境亮度（扣除闪光灯的贡献）持续偏亮时关闭；
+     * 不支持闪光灯的设备上无效；开启自动之前已手动打开的闪光灯不会被自动关闭
+     *
+     * @param b
+     */
+    public void setAutoTorch(boolean b) {
+        isAutoTorch = b;
+        torchController.reset();
+    }
+
+    /**
+     * 设置自动开关闪光灯的参数，默认40、120、1000毫秒<br/>
+     * 两个阈值之间保持当前状态，避免闪光灯反复开关
+     *
+     * @param darkThreshold 扫码区域亮度的中位数（0~255）低于多少时打开
+     * @param brightThreshold 环境亮度（闪光灯点亮时的亮度减去闪光灯的贡献）高于多少时关闭，需大于darkThreshold
+     * @param holdMillis 亮度需持续多久才切换
+     */
+    public void setAutoTorchParams(int darkThreshold, int brightThreshold, long holdMillis) {
+        torchController.setParams(darkThreshold, brightThreshold, holdMillis);
     }
 
     /**
@@ -303,6 +717,314 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
      */
     public void setSaveBmp(boolean b) {
         isSaveBmp = b;
+        if (b) SnapshotStore.get(getContext()).warmUp();
+    }
+
+    /**
+     * 设置保存图片的上限，默认20MB、200张、1天，超过任意一项时从最旧的图片开始删除<br/>
+     * 图片保存在外部缓存目录下的zbar_snapshots目录中，只会删除此目录中由本控件保存的图片
+     *
+     * @param maxBytes 总大小（字节），小于等于0表示不限制
+     * @param maxCount 数量，小于等于0表示不限制
+     * @param maxAgeMillis 存放时间（毫秒），小于等于0表示不限制
+     */
+    public void setSnapshotLimits(long maxBytes, int maxCount, long maxAgeMillis) {
+        SnapshotStore.get(getContext()).setLimits(maxBytes, maxCount, maxAgeMillis);
+    }
+
+    /**
+     * 设置异步保存图片的回调，默认null（同步保存）<br/>
+     * 设置后开启了setSaveBmp时，截图在单独的线程中编码和写入，识别结果立即返回（path为null），
+     * 写完后通过此回调返回路径，可用ScanResult.getTimestamp与结果对应
+     *
+     * @param callback
+     */
+    public void setSnapshotCallback(SnapshotCallback callback) {
+        this.snapshotCallback = callback;
+    }
+
+    /**
+     * 设置异步保存图片的队列，默认容量2、队列满时丢弃<br/>
+     * 丢弃的截图会以null路径回调；阻塞时等待的是解码线程，不会阻塞相机线程和主线程<br/>
+     * 需在onResume之前调用
+     *
+     * @param capacity 最多同时等待保存的截图数，小于1时按1处理
+     * @param block 队列满时是否阻塞，等待前面的截图写完
+     */
+    public void setSnapshotQueue(int capacity, boolean block) {
+        snapshotQueueSize = Math.max(1, capacity);
+        isSnapshotQueueBlocking = block;
+    }
+
+    /**
+     * 设置并行解码的线程数，默认1<br/>
+     * 多核设备上可以同时解码连续的几帧，第一个识别成功的结果会被返回，其余的被丢弃<br/>
+     * 需在onResume之前调用
+     *
+     * @param count 线程数，小于1时按1处理
+     */
+    public void setDecodeThreadCount(int count) {
+        decodeThreadCount = Math.max(1, count);
+    }
+
+    public int getDecodeThreadCount() {
+        return decodeThreadCount;
+    }
+
+    /**
+     * 设置是否使用视频模式，默认false<br/>
+     * 开启后zbar会在连续的帧之间缓存识别结果，同一个条码需在多帧中被确认后才会返回，且只返回一次，可减少误识别<br/>
+     * 视频模式下只使用一个解码线程，以保证连续的帧交给同一个ImageScanner<br/>
+     * 需在onResume之前调用
+     *
+     * @param b
+     */
+    public void setVideoMode(boolean b) {
+        if (isVideoMode == b) return;
+        isVideoMode = b;
+        scannerVersion++;
+    }
+
+    /**
+     * 视频模式下，扫码区域变化时是否重置zbar的帧间缓存，默认true
+     *
+     * @param b
+     */
+    public void setResetCacheOnWindowChange(boolean b) {
+        isResetCacheOnWindowChange = b;
+    }
+
+    /**
+     * 设置是否使用连续扫码模式，默认false<br/>
+     * 开启后识别成功不会暂停预览，也无需调用restartPreviewAfterDelay，一帧中所有不重复的条码都会通过回调返回；
+     * 在去重时间窗口内重复看到的条码（码格式和内容都相同）不会再次返回
+     *
+     * @param b
+     */
+    public void setContinuous(boolean b) {
+        isContinuous = b;
+        if (b) {
+            duplicateFilter.clear();
+            getOneMoreFrame();
+        }
+    }
+
+    /**
+     * 设置连续扫码模式的去重窗口，默认2000毫秒、64条<br/>
+     * 条码一直在视野中时会持续刷新时间，离开视野超过时间窗口后才会再次返回
+     *
+     * @param millis 时间窗口（毫秒）
+     * @param maxSize 最多记录的条码数，超过时淘汰最久未看到的
+     */
+    public void setDuplicateWindow(long millis, int maxSize) {
+        duplicateFilter.setWindow(millis, maxSize);
+    }
+
+    /**
+     * 设置是否跟踪上次识别到的条码位置，默认false<br/>
+     * 开启后识别成功的下一帧起只识别条码附近的区域，条码一直在视野中时可大幅减少识别的耗时；
+     * 连续识别失败若干次后回到完整的扫码区域，适合配合连续扫码模式使用
+     *
+     * @param b
+     */
+    public void setRoiTracking(boolean b) {
+        isRoiTracking = b;
+        roiTracker.reset();
+    }
+
+    /**
+     * 设置识别区域跟踪的参数，默认连续失败5次回退、余量0.5
+     *
+     * @param maxMisses 连续识别失败多少次后回到完整的扫码区域
+     * @param margin 运动余量，条码外接矩形每边向外扩展其长边的倍数
+     */
+    public void setRoiTrackingParams(int maxMisses, float margin) {
+        roiTracker.setParams(maxMisses, margin);
+    }
+
+    /**
+     * 设置由稀到密的多级扫描，默认只有一级，扫描线间隔为3<br/>
+     * 每一帧先用间隔大（扫描线少、速度快）的一级识别，识别失败或只得到不完整的条码时再用下一级，
+     * 例如setDecodeLevels(8, 3, 1)；成功的层级可通过ScanResult.getLevel获得<br/>
+     * 视频模式下只使用最后一级
+     *
+     * @param densities 各级扫描线间隔（像素），需大于0
+     */
+    public void setDecodeLevels(int... densities) {
+        if (densities == null || densities.length == 0) throw new IllegalArgumentException("至少需要一级");
+        for (int density : densities) {
+            if (density <= 0) throw new IllegalArgumentException("扫描线间隔需大于0");
+        }
+        decodeLevels = densities.clone();
+    }
+
+    /**
+     * 设置是否跳过模糊的帧，默认false<br/>
+     * 识别前在识别区域中稀疏取样估计清晰度，明显低于最近清晰帧的帧（对焦中、手抖）不交给zbar识别；
+     * 连续模糊多帧时会请求对焦
+     *
+     * @param b
+     */
+    public void setBlurFiltering(boolean b) {
+        isBlurFiltering = b;
+        sharpnessFilter.reset();
+    }
+
+    /**
+     * 设置模糊判断的参数，默认0.35、10帧
+     *
+     * @param ratio 清晰度低于最近峰值的这个比例视为模糊，取值0~1
+     * @param focusAfter 连续模糊多少帧后请求对焦，0为不请求
+     */
+    public void setBlurFilteringParams(float ratio, int focusAfter) {
+        sharpnessFilter.setParams(ratio, focusAfter);
+    }
+
+    /**
+     * 因模糊被跳过的帧数
+     */
+    public long getBlurSkippedFrames() {
+        return sharpnessFilter.getSkippedFrames();
+    }
+
+    /**
+     * 设置是否跳过静止的画面，默认false<br/>
+     * 每帧计算识别区域的分块亮度均值作为指纹，画面与上次识别失败时相比没有变化（例如对着空桌面）时不再识别，
+     * 画面一变化就恢复识别
+     *
+     * @param b
+     */
+    public void setStaticSceneSkipping(boolean b) {
+        isStaticSceneSkipping = b;
+        sceneDetector.clear();
+    }
+
+    /**
+     * 设置静止画面判断的参数，默认4、30帧
+     *
+     * @param threshold 各块亮度均值（0~255）的平均差小于多少视为没有变化
+     * @param maxSkip 连续跳过多少帧后强制识别一次
+     */
+    public void setStaticSceneParams(int threshold, int maxSkip) {
+        sceneDetector.setParams(threshold, maxSkip);
+    }
+
+    /**
+     * 因画面静止被跳过的帧数
+     */
+    public long getStaticSkippedFrames() {
+        return sceneDetector.getSkippedFrames();
+    }
+
+    /**
+     * 设置是否根据识别耗时调整取帧的频率，默认false<br/>
+     * 开启后统计每帧识别耗时的移动平均，使解码线程的忙碌时间不超过CPU预算：预算内多余的帧直接跳过，
+     * 并把相机的预览帧率范围（setPreviewFpsRange）调到刚好够用的一档；
+     * 系统处于省电模式（Android 5.0及以上）时预算减半<br/>
+     * 需在onResume之前调用
+     *
+     * @param b
+     */
+    public void setAdaptiveFrameRate(boolean b) {
+        isAdaptiveFrameRate = b;
+    }
+
+    /**
+     * 设置CPU预算，默认0.5，即每个解码线程最多一半的时间在识别
+     *
+     * @param budget 取值0~1
+     */
+    public void setFrameRateBudget(float budget) {
+        frameScheduler.setBudget(budget);
+    }
+
+    /**
+     * 设置发热程度，开启setAdaptiveFrameRate时预算除以(1+level)，默认0<br/>
+     * 可直接传入PowerManager.getCurrentThermalStatus（Android 10及以上）的值
+     *
+     * @param level 0为正常
+     */
+    public void setThermalHint(int level) {
+        frameScheduler.setThermalLevel(level);
+    }
+
+    /**
+     * 识别耗时的移动平均（毫秒），未开启setAdaptiveFrameRate时为0
+     */
+    public float getAverageDecodeMillis() {
+        return frameScheduler.getDecodeMillis();
+    }
+
+    /**
+     * 设置旋转重试，默认关闭<br/>
+     * zbar的扫描线是水平和竖直的，倾斜45度左右的一维码往往一直识别不出；
+     * 开启后连续识别失败afterMisses帧时，把识别区域旋转45度再识别一次，之后每interval帧重试一次，直到正常识别成功<br/>
+     * 重试只发生在识别失败的帧上，interval越大越省电；视频模式下不会重试
+     *
+     * @param afterMisses 连续失败多少帧后开始重试，小于等于0为关闭
+     * @param interval 每几帧重试一次，小于1时按1处理
+     */
+    public void setRotatedRetry(int afterMisses, int interval) {
+        rotatedRetryInterval = Math.max(1, interval);
+        rotatedRetryMisses = Math.max(0, afterMisses);
+    }
+
+    /**
+     * 设置是否在手机晃动时跳过预览帧，默认false<br/>
+     * 使用加速度传感器判断晃动，晃动期间的帧大多是模糊的，跳过可以省电，也能让静止后的第一帧更快被识别<br/>
+     * 需在onResume之前调用
+     *
+     * @param b
+     */
+    public void setMotionGating(boolean b) {
+        isMotionGating = b;
+    }
+
+    /**
+     * 设置晃动判断的参数，默认1.5m/s²、300毫秒、全部跳过
+     *
+     * @param threshold 去掉重力后的加速度超过多少（m/s²）视为晃动
+     * @param settleMillis 低于阈值多久后恢复每帧识别
+     * @param decodeEvery 晃动期间每几帧识别一次，0为全部跳过
+     */
+    public void setMotionGatingParams(float threshold, long settleMillis, int decodeEvery) {
+        motionGate.setParams(threshold, settleMillis, decodeEvery);
+    }
+
+    /**
+     * 本次onResume以来因晃动被跳过的帧数
+     */
+    public long getMotionSkippedFrames() {
+        return motionGate.getSkippedFrames();
+    }
+
+    /**
+     * 本次onResume以来晃动期间到达的帧数（包括被识别的）
+     */
+    public long getMotionFrames() {
+        return motionGate.getMovingFrames();
+    }
+
+    /**
+     * 扫码框的位置或尺寸变化后调用，重新计算扫码区域和对焦区域
+     */
+    public void refreshFramingRect() {
+        scaledRect = null;
+        sceneDetector.clear();
+        roiTracker.reset();
+        focusAreas = null;
+        if (cameraWrapper != null) setAutoFocusArea();
+    }
+
+    /**
+     * 是否使用带缓冲区的预览回调（setPreviewCallbackWithBuffer），默认false<br/>
+     * 开启后预览帧会循环使用预先分配的缓冲区，不再每帧分配新的内存<br/>
+     * 需在onResume之前调用
+     *
+     * @param b
+     */
+    public void setPreviewBuffered(boolean b) {
+        isPreviewBuffered = b;
     }
 
     // ******************************************************************************
@@ -310,27 +1032,89 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
     // ******************************************************************************
 
     /**
-     * 再获取一帧图像数据进行识别（会再次触发onPreviewFrame方法）
+     * 恢复识别，再获取一帧图像数据进行识别（会再次触发onPreviewFrame方法）
      */
     private void getOneMoreFrame() {
         if (cameraWrapper != null) {
+            isPaused = false;
             try {
-                cameraWrapper.camera.setOneShotPreviewCallback(this);
+                if (previewBufferPool != null) previewBufferPool.resume(cameraWrapper.camera);
+                else cameraWrapper.camera.setOneShotPreviewCallback(this);
             } catch (Exception e) {}
         }
     }
 
+    /**
+     * 暂停识别，只有第一个调用者会成功
+     *
+     * @param data 识别成功的帧
+     * @return 是否由本次调用暂停
+     */
+    private synchronized boolean pause(byte[] data) {
+        if (isPaused) {
+            recycleFrame(data);
+            return false;
+        }
+        isPaused = true;
+        if (previewBufferPool != null) previewBufferPool.pause(data);
+        if (frameDecoder != null) frameDecoder.clear();
+        return true;
+    }
+
+    /**
+     * 当前帧处理完毕（缓冲模式下归还缓冲区，暂停期间会被扣下）
+     *
+     * @param data 当前帧
+     */
+    private void recycleFrame(byte[] data) {
+        PreviewBufferPool pool = previewBufferPool;
+        CameraWrapper wrapper = cameraWrapper;
+        if (pool == null || wrapper == null) return;
+        try {
+            pool.recycle(wrapper.camera, data);
+        } catch (Exception e) {}
+    }
+
+    /**
+     * 获取解码线程的ImageScanner，码格式变更后重建
+     */
+    private ImageScanner obtainScanner(FrameDecoder.Worker worker) {
+        int version = scannerVersion;
+        if (worker.scanner == null || worker.scannerVersion != version) {
+            if (worker.scanner != null) worker.scanner.destroy();
+            worker.scanner = setupScanner();
+            worker.scannerVersion = version;
+            worker.density = 3;
+            worker.cacheVersion = cacheVersion;
+        } else if (worker.cacheVersion != cacheVersion) {
+            //关闭再开启即可清空zbar的帧间缓存
+            worker.scanner.enableCache(false);
+            worker.scanner.enableCache(isVideoMode);
+            worker.cacheVersion = cacheVersion;
+        }
+        return worker.scanner;
+    }
+
+    /**
+     * 实际使用的解码线程数
+     */
+    private int getActualDecodeThreadCount() {
+        return isVideoMode ? 1 : decodeThreadCount;
+    }
+
     /**
      * 创建ImageScanner并进行基本设置（如支持的码格式）
      */
-    private void setupScanner() {
-        imageScanner = new ImageScanner();
+    private ImageScanner setupScanner() {
+        ImageScanner imageScanner = new ImageScanner();
         imageScanner.setConfig(0, Config.X_DENSITY, 3);
         imageScanner.setConfig(0, Config.Y_DENSITY, 3);
         imageScanner.setConfig(Symbol.NONE, Config.ENABLE, 0);
         for (BarcodeFormat format : getFormats()) {//设置支持的码格式
             imageScanner.setConfig(format.getId(), Config.ENABLE, 1);
         }
+        imageScanner.enableCache(isVideoMode);
+        return imageScanner;
     }
 
     void setupCameraPreview(final CameraWrapper cameraWrapper) {
@@ -339,6 +1123,12 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
         removeAllViews();
         if (previewSize == null) previewSize = getOptimalPreviewSize(getMeasuredWidth(), getMeasuredHeight());
         cameraPreview = new CameraPreview(getContext(), previewSize[0], previewSize[1], cameraWrapper, this, this);
+        if (isMotionGating) cameraPreview.setMotionListener(motionGate);
+        if (isPreviewBuffered) {
+            //每个解码线程各占一个，另外一个等待解码、一个留给相机
+            previewBufferPool = new PreviewBufferPool(previewSize[0], previewSize[1], getActualDecodeThreadCount() + 2);
+            cameraPreview.setPreviewBufferPool(previewBufferPool);
+        }
         addView(cameraPreview);
         addView(((View) viewFinderView));
     }
@@ -347,6 +1137,16 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
      * 打开系统相机，并进行基本的初始化
      */
     private void startCamera() {
+        isPaused = false;
+        motionGate.reset();
+        sharpnessFilter.reset();
+        sceneDetector.reset();
+        frameScheduler.reset(getContext());
+        if (isSaveBmp) SnapshotStore.get(getContext()).warmUp();
+        torchController.reset();
+        if (frameDecoder == null) {
+            frameDecoder = new FrameDecoder(this, getActualDecodeThreadCount());
+        }
         if (cameraHandlerThread == null) {
             cameraHandlerThread = new CameraHandlerThread(this);
         }
@@ -357,6 +1157,18 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
      * 释放相机资源等各种资源
      */
     private void stopCamera() {
+        removeCallbacks(requestNextFrameRunnable);
+        if (frameDecoder != null) {
+            frameDecoder.quit();
+            frameDecoder = null;
+        }
+        synchronized (this) {
+            //已提交的截图会继续保存完
+            if (snapshotWriter != null) {
+                snapshotWriter.quit();
+                snapshotWriter = null;
+            }
+        }
         if (cameraHandlerThread != null) {
             cameraHandlerThread.quit();
             cameraHandlerThread = null;
@@ -367,7 +1179,10 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
             cameraWrapper.camera.release();//释放资源
             cameraWrapper = null;
         }
+        previewBufferPool = null;
         scaledRect = null;
+        lastScaledRect = null;
+        roiTracker.reset();
         removeAllViews();
     }
 
@@ -375,44 +1190,56 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
      * 根据ViewFinderView和preview的尺寸之比，缩放扫码区域
      */
     private Rect getScaledRect(int previewWidth, int previewHeight) {
-        if (scaledRect == null) {
+        Rect rect = scaledRect;
+        if (rect == null) {
             Rect framingRect = viewFinderView.getFramingRect();//获得扫码框区域
-            int viewFinderViewWidth = ((View) viewFinderView).getWidth();
-            int viewFinderViewHeight = ((View) viewFinderView).getHeight();
-            scaledRect = new Rect(framingRect);
-            Point p = new Point();
-            ((WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay().getSize(p);
-            int o = p.x == p.y ? 0 : p.x < p.y ? Configuration.ORIENTATION_PORTRAIT : Configuration.ORIENTATION_LANDSCAPE;
-            float ratio = o == Configuration.ORIENTATION_PORTRAIT ? previewHeight * 1f / previewWidth : previewWidth * 1f / previewHeight;
-            float r = viewFinderViewWidth * 1f / viewFinderViewHeight;
-            if (ratio < r){
-                int width = o == Configuration.ORIENTATION_PORTRAIT ? previewHeight : previewWidth;
-                scaledRect.left = scaledRect.left * width / viewFinderViewWidth;
-                scaledRect.right = scaledRect.right * width / viewFinderViewWidth;
-                scaledRect.top = scaledRect.top * width / viewFinderViewWidth;
-                scaledRect.bottom = scaledRect.bottom * width / viewFinderViewWidth;
-            } else {
-                int height = o == Configuration.ORIENTATION_PORTRAIT ? previewWidth : previewHeight;
-                scaledRect.left = scaledRect.left * height / viewFinderViewHeight;
-                scaledRect.right = scaledRect.right * height / viewFinderViewHeight;
-                scaledRect.top = scaledRect.top * height / viewFinderViewHeight;
-                scaledRect.bottom = scaledRect.bottom * height / viewFinderViewHeight;
-            }
+            rect = new Rect(framingRect);
+            int[] ratio = getScaleRatio(previewWidth, previewHeight);
+            rect.left = rect.left * ratio[0] / ratio[1];
+            rect.right = rect.right * ratio[0] / ratio[1];
+            rect.top = rect.top * ratio[0] / ratio[1];
+            rect.bottom = rect.bottom * ratio[0] / ratio[1];
             int rotationCount = getRotationCount();
             if (rotationCount == 1 || rotationCount == 3) {
-                int temp1 = scaledRect.left;
-                scaledRect.left = scaledRect.top;
-                scaledRect.top = temp1;
-                int temp2 = scaledRect.right;
-                scaledRect.right = scaledRect.bottom;
-                scaledRect.bottom = temp2;
+                int temp1 = rect.left;
+                rect.left = rect.top;
+                rect.top = temp1;
+                int temp2 = rect.right;
+                rect.right = rect.bottom;
+                rect.bottom = temp2;
             }
-            if (scaledRect.left < 0)  scaledRect.left = 0;
-            if (scaledRect.top < 0) scaledRect.top = 0;
-            if (scaledRect.right > previewWidth) scaledRect.right = previewWidth;
-            if (scaledRect.bottom > previewHeight) scaledRect.bottom = previewHeight;
+            if (rect.left < 0)  rect.left = 0;
+            if (rect.top < 0) rect.top = 0;
+            if (rect.right > previewWidth) rect.right = previewWidth;
+            if (rect.bottom > previewHeight) rect.bottom = previewHeight;
+            if (!rect.equals(lastScaledRect)) {
+                //扫码区域发生了变化，按需重置zbar的帧间缓存
+                if (lastScaledRect != null && isResetCacheOnWindowChange) cacheVersion++;
+                lastScaledRect = rect;
+            }
+            scaledRect = rect;
+        }
+        return rect;
+    }
+
+    /**
+     * 预览图像与ViewFinderView的缩放比例（预览像素:控件像素 = ratio[0]:ratio[1]）
+     */
+    private int[] getScaleRatio(int previewWidth, int previewHeight) {
+        int viewFinderViewWidth = ((View) viewFinderView).getWidth();
+        int viewFinderViewHeight = ((View) viewFinderView).getHeight();
+        Point p = new Point();
+        ((WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay().getSize(p);
+        int o = p.x == p.y ? 0 : p.x < p.y ? Configuration.ORIENTATION_PORTRAIT : Configuration.ORIENTATION_LANDSCAPE;
+        float ratio = o == Configuration.ORIENTATION_PORTRAIT ? previewHeight * 1f / previewWidth : previewWidth * 1f / previewHeight;
+        float r = viewFinderViewWidth * 1f / viewFinderViewHeight;
+        if (ratio < r){
+            int width = o == Configuration.ORIENTATION_PORTRAIT ? previewHeight : previewWidth;
+            return new int[] {width, viewFinderViewWidth};
+        } else {
+            int height = o == Configuration.ORIENTATION_PORTRAIT ? previewWidth : previewHeight;
+            return new int[] {height, viewFinderViewHeight};
         }
-        return scaledRect;
     }
 
     /**
@@ -432,7 +1259,7 @@ public class ZBarScannerView extends FrameLayout implements Camera.PreviewCallba
     private int[] getOptimalPreviewSize(int width, int height) {
         if (cameraWrapper == null) return new int[] {0, 0};
         //相机图像默认都是横屏(即宽>高)
-        List<Camera.Size> sizes = cameraWrapper.camera.getParameters().getSupportedPreviewSizes();
+        List<Camera.Size> sizes = cameraWrapper.getParameters().getSupportedPreviewSizes();
         if (sizes == null) return new int[] {0, 0};
         int w, h;
         if (getResources().getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE) {
@@ -0,0 +1,141 @@
+package com.shouzhong.zbar;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 缓冲模式下，识别结果返回后预览帧的缓冲区会立即被相机覆盖，异步保存的截图必须是返回结果之前的内容
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class SnapshotWriterTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private SnapshotWriter writer;
+
+    @After
+    public void tearDown() {
+        if (writer != null) writer.quit();
+    }
+
+    /**
+     * 返回结果后立即恢复预览（restartPreviewAfterDelay(0)），缓冲区被下一帧覆盖
+     */
+    @Test
+    public void restartPreviewRightAfterResults() throws Exception {
+        RecordingEncoder encoder = new RecordingEncoder(null, 1);
+        writer = new SnapshotWriter(encoder, 2, SnapshotWriter.POLICY_DROP, encoder);
+        FrameDecoder.Frame frame = newFrame((byte) 0x11);
+        byte[] expected = expectedSnapshot(frame);
+
+        SnapshotWriter.Job job = writer.prepare(frame);//返回结果之前复制
+        assertNotNull(job);
+        Arrays.fill(frame.data, (byte) 0x7F);//返回结果，恢复预览，相机写入下一帧
+        writer.submit(job);
+
+        assertTrue(encoder.saved.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(expected, encoder.encoded.get());
+        assertEquals(frame.timestamp, encoder.timestamp.get());
+    }
+
+    /**
+     * 队列满且策略为阻塞时，prepare在复制之前等待，返回时数据已复制完，之后覆盖缓冲区不影响截图
+     */
+    @Test
+    public void blockingQueueCopiesBeforeReturning() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingEncoder encoder = new RecordingEncoder(release, 2);
+        writer = new SnapshotWriter(encoder, 1, SnapshotWriter.POLICY_BLOCK, encoder);
+        writer.submit(writer.prepare(newFrame((byte) 0x22)));//占满队列，写文件的线程卡在编码中
+
+        final FrameDecoder.Frame frame = newFrame((byte) 0x33);
+        byte[] expected = expectedSnapshot(frame);
+        final AtomicReference<SnapshotWriter.Job> prepared = new AtomicReference<>();
+        Thread decodeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prepared.set(writer.prepare(frame));
+            }
+        });
+        decodeThread.start();
+        decodeThread.join(200);
+        assertTrue(decodeThread.isAlive());//阻塞中，结果还未返回，缓冲区不会被归还
+
+        release.countDown();
+        decodeThread.join(5000);
+        assertFalse(decodeThread.isAlive());
+        assertNotNull(prepared.get());
+        Arrays.fill(frame.data, (byte) 0x7F);//返回结果，恢复预览
+        writer.submit(prepared.get());
+
+        assertTrue(encoder.saved.await(5, TimeUnit.SECONDS));//两张截图都已保存
+        assertArrayEquals(expected, encoder.encoded.get());
+    }
+
+    private static FrameDecoder.Frame newFrame(byte seed) {
+        FrameDecoder.Frame frame = new FrameDecoder.Frame();
+        frame.width = WIDTH;
+        frame.height = HEIGHT;
+        frame.data = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < frame.data.length; i++) {
+            frame.data[i] = (byte) (seed + i * 31);
+        }
+        frame.rect.set(8, 6, 40, 30);
+        frame.rotationCount = 1;
+        frame.timestamp = seed;
+        return frame;
+    }
+
+    private static byte[] expectedSnapshot(FrameDecoder.Frame frame) {
+        int size = frame.rect.width() * frame.rect.height() * 3 / 2;
+        byte[] out = new byte[size];
+        Utils.cropNv21(frame.data.clone(), frame.width, frame.height, frame.rect, frame.rotationCount, out);
+        return out;
+    }
+
+    private static class RecordingEncoder implements SnapshotWriter.Encoder, SnapshotWriter.Listener {
+        private final CountDownLatch release;//不为null时第一次编码会等待它
+        final CountDownLatch saved;
+        final AtomicReference<byte[]> encoded = new AtomicReference<>();//最近一次编码的数据
+        final AtomicLong timestamp = new AtomicLong();
+
+        RecordingEncoder(CountDownLatch release, int count) {
+            this.release = release;
+            this.saved = new CountDownLatch(count);
+        }
+
+        @Override
+        public String save(byte[] nv21, int width, int height) {
+            encoded.set(Arrays.copyOf(nv21, width * height * 3 / 2));
+            try {
+                if (release != null) release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "snapshot.jpg";
+        }
+
+        @Override
+        public void saved(long time, String path) {
+            timestamp.set(time);
+            saved.countDown();
+        }
+    }
+}